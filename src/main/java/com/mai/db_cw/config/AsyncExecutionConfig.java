@@ -0,0 +1,68 @@
+package com.mai.db_cw.config;
+
+import com.mai.db_cw.config.infrastructure.operation_storage.OperationAdmissionControl;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>Настройка выполнения @Async операций.</p>
+ * <p>Режим переключается свойством spring.threads.virtual.enabled: при true спринг
+ * выполняет @Async задачи и запросы Tomcat на виртуальных потоках, при false -
+ * на стандартном пуле платформенных потоков</p>
+ * <p>На виртуальных потоках количество потоков больше не ограничивает нагрузку на БД,
+ * поэтому параллельность @Async задач ограничивается семафором по размеру пула Hikari</p>
+ * <p>Ожидающие задачи учитываются в {@link OperationAdmissionControl} по настоящим очередям:
+ * очереди пула платформенных потоков и очереди ожидающих семафор</p>
+ */
+@Slf4j
+@Configuration
+public class AsyncExecutionConfig {
+
+    @Bean
+    public Semaphore asyncDbPermits(
+            @Value("${spring.datasource.hikari.maximum-pool-size:10}") int maxPoolSize,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        log.info("Async execution mode: {} threads, db permits: {}", virtualThreads ? "virtual" : "platform", maxPoolSize);
+        return new Semaphore(maxPoolSize, true);
+    }
+
+    /**
+     * Декоратор применяется спрингом к executor'у @Async задач в обоих режимах
+     */
+    @Bean
+    public TaskDecorator asyncTaskDecorator(Semaphore asyncDbPermits, OperationAdmissionControl admissionControl,
+                                            ObjectProvider<ThreadPoolTaskExecutor> taskExecutors) {
+        // на виртуальных потоках пула нет, задачи ждут только семафор
+        admissionControl.registerQueue(OperationAdmissionControl.ASYNC_QUEUE, () -> {
+            ThreadPoolTaskExecutor executor = taskExecutors.getIfUnique();
+            return asyncDbPermits.getQueueLength() + (executor != null ? executor.getQueueSize() : 0);
+        });
+
+        return task -> {
+            // время ожидания пишется после получения разрешения, вместе с ожиданием семафора
+            Runnable timed = admissionControl.trackAsync(task);
+            return () -> {
+                try {
+                    asyncDbPermits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.warn("Async task interrupted while waiting for db permit");
+                    return;
+                }
+
+                try {
+                    timed.run();
+                } finally {
+                    asyncDbPermits.release();
+                }
+            };
+        };
+    }
+}
@@ -1,23 +1,50 @@
 package com.mai.db_cw.config;
 
+import com.mai.db_cw.config.infrastructure.operation_storage.IdempotencyKeyStorage;
 import com.mai.db_cw.config.infrastructure.operation_storage.OperationStorage;
+import com.mai.db_cw.config.infrastructure.operation_storage.RedisIdempotencyKeyStorage;
 import com.mai.db_cw.config.infrastructure.operation_storage.RedisOperationStorage;
+import com.mai.db_cw.config.infrastructure.operation_storage.SimpleInMemoryIdempotencyKeyStorage;
 import com.mai.db_cw.config.infrastructure.operation_storage.SimpleInMemoryOperationStorage;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
-import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
 
 @Configuration
 public class OperationStorageConfig {
 
-    public OperationStorage operationStorage() {
-        return new SimpleInMemoryOperationStorage();
+    public OperationStorage operationStorage(MeterRegistry meterRegistry,
+                                             Duration acceptedTtl,
+                                             Duration finishedTtl,
+                                             int maxSize) {
+        return new SimpleInMemoryOperationStorage(meterRegistry, acceptedTtl, finishedTtl, maxSize);
+    }
+
+    @Bean
+    @Primary
+    public OperationStorage operationStorage(
+            @Qualifier("operationRecordRedisTemplate")
+            RedisTemplate<String, RedisOperationStorage.OperationRecord> operationRecordRedisTemplate,
+            @Value("${operations.ttl.accepted:PT1H}") Duration acceptedTtl,
+            @Value("${operations.ttl.finished:PT24H}") Duration finishedTtl,
+            @Value("${operations.redis.legacy-fallback:true}") boolean legacyFallback) {
+        return new RedisOperationStorage(operationRecordRedisTemplate, acceptedTtl, finishedTtl, legacyFallback);
+    }
+
+    public IdempotencyKeyStorage idempotencyKeyStorage() {
+        return new SimpleInMemoryIdempotencyKeyStorage();
     }
 
     @Bean
     @Primary
-    public OperationStorage operationStorage(HashOperations<String, String, RedisOperationStorage.OperationRecord> hashOperations) {
-        return new RedisOperationStorage(hashOperations);
+    public IdempotencyKeyStorage idempotencyKeyStorage(StringRedisTemplate stringRedisTemplate) {
+        return new RedisIdempotencyKeyStorage(stringRedisTemplate);
     }
 }
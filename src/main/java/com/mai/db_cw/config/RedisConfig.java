@@ -1,7 +1,6 @@
 package com.mai.db_cw.config;
 
 import com.mai.db_cw.config.infrastructure.operation_storage.RedisOperationStorage.OperationRecord;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -9,8 +8,8 @@ import org.springframework.context.annotation.Primary;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
-import org.springframework.data.redis.core.HashOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
@@ -48,10 +47,14 @@ public class RedisConfig {
         return tpl;
     }
 
-    @Bean
-    public HashOperations<String, String, OperationRecord> operationRecordHashOps(
-            @Qualifier("operationRecordRedisTemplate")
-            RedisTemplate<String, OperationRecord> tpl) {
-        return tpl.opsForHash();
+    /**
+     * Подписки на каналы pub/sub приложения (изменения броней между узлами).
+     * Отдельно от контейнера Spring Session
+     */
+    @Bean("reservationEventsListenerContainer")
+    public RedisMessageListenerContainer reservationEventsListenerContainer(RedisConnectionFactory cf) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(cf);
+        return container;
     }
-}
\ No newline at end of file
+}
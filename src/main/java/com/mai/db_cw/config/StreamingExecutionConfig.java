@@ -0,0 +1,34 @@
+package com.mai.db_cw.config;
+
+import com.mai.db_cw.config.infrastructure.utility.NdjsonStreamExecutor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+
+/**
+ * <p>Асинхронные ответы MVC (StreamingResponseBody) пишутся в {@link NdjsonStreamExecutor},
+ * а не в applicationTaskExecutor с декоратором @Async задач из {@link AsyncExecutionConfig}</p>
+ * <p>Таймаут ответа ограничивает время выгрузки, после него запись прерывается</p>
+ */
+@Configuration
+public class StreamingExecutionConfig implements WebMvcConfigurer {
+
+    private final NdjsonStreamExecutor ndjsonStreamExecutor;
+    private final Duration maxDuration;
+
+    public StreamingExecutionConfig(
+            NdjsonStreamExecutor ndjsonStreamExecutor,
+            @Value("${reservations.stream.max-duration:PT5M}") Duration maxDuration) {
+        this.ndjsonStreamExecutor = ndjsonStreamExecutor;
+        this.maxDuration = maxDuration;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(ndjsonStreamExecutor.executor());
+        configurer.setDefaultTimeout(maxDuration.toMillis());
+    }
+}
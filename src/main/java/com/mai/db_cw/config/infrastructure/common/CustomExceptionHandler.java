@@ -2,6 +2,7 @@ package com.mai.db_cw.config.infrastructure.common;
 
 import com.mai.db_cw.config.infrastructure.auth.dto.ErrorResponseDto;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.BadCredentialsException;
@@ -9,6 +10,7 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
 import com.mai.db_cw.config.infrastructure.exceptions.InvalidUserInfoException;
+import com.mai.db_cw.config.infrastructure.exceptions.OperationRejectedException;
 import com.mai.db_cw.config.infrastructure.exceptions.UserNotFoundException;
 
 import java.util.Arrays;
@@ -33,6 +35,15 @@ public class CustomExceptionHandler {
                 .body(new ErrorResponseDto(exception.getMessage(), HttpStatus.BAD_REQUEST.value()));
     }
 
+    @ExceptionHandler(OperationRejectedException.class)
+    public ResponseEntity<ErrorResponseDto> operationRejectedException(OperationRejectedException exception) {
+        log.warn("Operation rejected: {}", exception.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, exception.getRetryAfter().toSeconds())))
+                .body(new ErrorResponseDto(exception.getMessage(), HttpStatus.SERVICE_UNAVAILABLE.value()));
+    }
+
     @ExceptionHandler(BadCredentialsException.class)
     public ResponseEntity<ErrorResponseDto> badCredentialsException(BadCredentialsException exception) {
         log.error("Exception occure here {}", exception.getMessage());
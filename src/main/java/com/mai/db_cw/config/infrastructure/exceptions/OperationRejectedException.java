@@ -0,0 +1,20 @@
+package com.mai.db_cw.config.infrastructure.exceptions;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+
+/**
+ * Операция не принята, потому что очереди асинхронной обработки переполнены
+ */
+@Getter
+public class OperationRejectedException extends ApplicationException {
+
+    private final Duration retryAfter;
+
+    public OperationRejectedException(String message, Duration retryAfter) {
+        super(message, HttpStatus.SERVICE_UNAVAILABLE);
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,30 @@
+package com.mai.db_cw.config.infrastructure.operation_storage;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Хранилище ключей идемпотентности (заголовок Idempotency-Key):
+ * ключ указывает на уже зарегистрированную асинхронную операцию и живет ttl
+ */
+public interface IdempotencyKeyStorage {
+
+    /**
+     * Атомарно привязывает ключ к операции, если он еще не привязан
+     *
+     * @param key         ключ идемпотентности
+     * @param operationId операция, к которой нужно привязать ключ
+     * @param ttl         время жизни ключа
+     * @return id ранее привязанной операции, либо empty если ключ привязан к operationId
+     */
+    Optional<UUID> bindIfAbsent(String key, UUID operationId, Duration ttl);
+
+    /**
+     * Операция, к которой сейчас привязан ключ
+     *
+     * @param key ключ идемпотентности
+     * @return id привязанной операции, либо empty если ключ свободен или истек
+     */
+    Optional<UUID> find(String key);
+}
@@ -0,0 +1,98 @@
+package com.mai.db_cw.config.infrastructure.operation_storage;
+
+import com.fasterxml.uuid.Generators;
+import com.mai.db_cw.config.infrastructure.exceptions.ApplicationException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * <p>Регистрация асинхронных операций с учетом заголовка Idempotency-Key.</p>
+ * <p>Повторный запрос с тем же ключом (например, ретрай после таймаута в UI)
+ * получает id уже существующей операции и не ставит работу повторно</p>
+ * <p>Перед регистрацией новая операция проходит {@link OperationAdmissionControl},
+ * повтор по ключу отдается без этой проверки</p>
+ */
+@Slf4j
+@Component
+public class IdempotentOperationRegistry {
+
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final OperationStorage operationStorage;
+    private final IdempotencyKeyStorage idempotencyKeyStorage;
+    private final OperationAdmissionControl admissionControl;
+    private final Duration keyTtl;
+
+    public IdempotentOperationRegistry(
+            OperationStorage operationStorage,
+            IdempotencyKeyStorage idempotencyKeyStorage,
+            OperationAdmissionControl admissionControl,
+            @Value("${operations.idempotency-key-ttl:24h}") Duration keyTtl) {
+        this.operationStorage = operationStorage;
+        this.idempotencyKeyStorage = idempotencyKeyStorage;
+        this.admissionControl = admissionControl;
+        this.keyTtl = keyTtl;
+    }
+
+    /**
+     * Регистрирует новую операцию или возвращает ту, к которой уже привязан ключ
+     *
+     * @param scope          область ключа (тип операции и пользователь), чтобы ключи разных клиентов не пересекались
+     * @param idempotencyKey значение заголовка Idempotency-Key, может быть null
+     * @return id операции и признак повтора
+     * @throws com.mai.db_cw.config.infrastructure.exceptions.OperationRejectedException если очереди переполнены
+     */
+    public Registration register(String scope, String idempotencyKey) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            admissionControl.admit(operationType(scope));
+            return new Registration(operationStorage.addOperationReturningUUID(), false);
+        }
+
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new ApplicationException("Idempotency-Key слишком длинный", HttpStatus.BAD_REQUEST);
+        }
+
+        // повтор уже принятого запроса отдает его операцию и под перегрузкой не получает 503
+        String key = scope + ":" + idempotencyKey;
+        Optional<UUID> existing = idempotencyKeyStorage.find(key);
+        if (existing.isPresent()) {
+            log.info("Duplicate request with idempotency key, existing operation: {}", existing.get());
+            return new Registration(existing.get(), true);
+        }
+
+        admissionControl.admit(operationType(scope));
+
+        // операцию регистрируем до привязки ключа, чтобы повтор сразу видел ее статус
+        UUID operationId = Generators.timeBasedEpochGenerator().generate();
+        operationStorage.addOperation(operationId);
+
+        // параллельный повтор мог привязать ключ между find и bindIfAbsent
+        existing = idempotencyKeyStorage.bindIfAbsent(key, operationId, keyTtl);
+        if (existing.isPresent()) {
+            operationStorage.removeOperation(operationId);
+            log.info("Duplicate request with idempotency key, existing operation: {}", existing.get());
+            return new Registration(existing.get(), true);
+        }
+
+        return new Registration(operationId, false);
+    }
+
+    private static String operationType(String scope) {
+        int separator = scope.indexOf(':');
+        return separator < 0 ? scope : scope.substring(0, separator);
+    }
+
+    /**
+     * @param operationId id операции
+     * @param duplicate   true если это повтор и работу ставить не нужно
+     */
+    public record Registration(UUID operationId, boolean duplicate) {
+    }
+}
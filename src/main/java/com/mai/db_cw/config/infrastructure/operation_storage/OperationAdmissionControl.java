@@ -0,0 +1,122 @@
+package com.mai.db_cw.config.infrastructure.operation_storage;
+
+import com.mai.db_cw.config.infrastructure.exceptions.OperationRejectedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * <p>Контроль приема асинхронных операций (backpressure).</p>
+ * <p>Очереди конвейера (executor @Async задач, полосы бронирования, group-commit)
+ * регистрируют здесь свою глубину. Пока суммарная глубина не ниже high-water mark,
+ * новые операции отклоняются сразу с 503 и Retry-After, а не висят в
+ * {@link OperationStorage} в статусе ACCEPTED</p>
+ */
+@Slf4j
+@Component
+public class OperationAdmissionControl {
+
+    public static final String ASYNC_QUEUE = "async";
+
+    private final MeterRegistry meterRegistry;
+    private final int highWaterMark;
+    private final Duration retryAfter;
+
+    private final Map<String, IntSupplier> queues = new ConcurrentHashMap<>();
+
+    public OperationAdmissionControl(
+            MeterRegistry meterRegistry,
+            @Value("${operations.admission.high-water-mark:1000}") int highWaterMark,
+            @Value("${operations.admission.retry-after:5s}") Duration retryAfter) {
+        this.meterRegistry = meterRegistry;
+        this.highWaterMark = highWaterMark;
+        this.retryAfter = retryAfter;
+
+        Gauge.builder("operations.admission.depth", this, OperationAdmissionControl::depth)
+                .description("Суммарное количество операций в очередях асинхронной обработки")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Регистрирует очередь конвейера, ее глубина учитывается при приеме операций
+     *
+     * @param name  имя очереди (тег метрики)
+     * @param depth текущая глубина очереди
+     */
+    public void registerQueue(String name, IntSupplier depth) {
+        queues.put(name, depth);
+        Gauge.builder("operations.queue.depth", depth, IntSupplier::getAsInt)
+                .description("Количество операций в очереди")
+                .tag("queue", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Пропускает операцию или кидает {@link OperationRejectedException}, если очереди переполнены
+     *
+     * @param operation тип операции (тег метрики)
+     */
+    public void admit(String operation) {
+        int depth = depth();
+        if (depth >= highWaterMark) {
+            Counter.builder("operations.admission.rejected")
+                    .tag("operation", operation)
+                    .register(meterRegistry)
+                    .increment();
+            log.warn("Operation {} rejected: queue depth {} >= high-water mark {}", operation, depth, highWaterMark);
+            throw new OperationRejectedException("Сервис перегружен, повторите запрос позже", retryAfter);
+        }
+
+        Counter.builder("operations.admission.accepted")
+                .tag("operation", operation)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Суммарная глубина всех зарегистрированных очередей
+     */
+    public int depth() {
+        return queues.values().stream()
+                .mapToInt(IntSupplier::getAsInt)
+                .sum();
+    }
+
+    /**
+     * Оборачивает задачу @Async executor'а, чтобы при старте записать время ожидания.
+     * Глубину очереди @Async задач регистрирует {@link com.mai.db_cw.config.AsyncExecutionConfig}
+     * по настоящим очередям: счетчик в обертке не уменьшался бы для задач, которые
+     * executor отклонил или выбросил при остановке
+     */
+    public Runnable trackAsync(Runnable task) {
+        return trackQueueWait(ASYNC_QUEUE, task);
+    }
+
+    /**
+     * Оборачивает задачу так, чтобы при старте записать, сколько она провела в очереди
+     *
+     * @param queue имя очереди (тег метрики)
+     * @param task  задача
+     */
+    public Runnable trackQueueWait(String queue, Runnable task) {
+        long enqueuedAt = System.nanoTime();
+        Timer timer = Timer.builder("operations.queue.wait")
+                .description("Время ожидания операции в очереди до начала выполнения")
+                .tag("queue", queue)
+                .register(meterRegistry);
+        return () -> {
+            timer.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+            task.run();
+        };
+    }
+}
@@ -5,6 +5,7 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 
+import java.util.Optional;
 import java.util.UUID;
 
 /**
@@ -24,5 +25,20 @@ public interface OperationStorage {
     boolean containsOperation(UUID operationId);
     void addOperation(UUID operationId);
     void successfully(UUID operationId);
+
+    /**
+     * Успешно завершает операцию и сохраняет вместе со статусом ее результат (JSON), живет столько же
+     */
+    void successfully(UUID operationId, String result);
+
+    /**
+     * Завершает операцию с ошибкой и сохраняет вместе со статусом ее результат (JSON)
+     */
+    void failOperation(UUID operationId, String cause, HttpStatus httpStatus, String result);
+
+    /**
+     * Результат операции, если он был сохранен при завершении
+     */
+    Optional<String> getOperationResult(UUID operationId);
 }
 
@@ -0,0 +1,47 @@
+package com.mai.db_cw.config.infrastructure.operation_storage;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Хранилище ключей идемпотентности в Redis: одна строка на ключ,
+ * привязка через SET NX с TTL, поэтому ключ общий для всех узлов
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class RedisIdempotencyKeyStorage implements IdempotencyKeyStorage {
+    private static final String KEY_PREFIX = "idempotency:";
+    private static final int MAX_ATTEMPTS = 3;
+    private final StringRedisTemplate redisTemplate;
+
+    @Override
+    public Optional<UUID> bindIfAbsent(String key, UUID operationId, Duration ttl) {
+        String redisKey = KEY_PREFIX + key;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Boolean bound = redisTemplate.opsForValue().setIfAbsent(redisKey, operationId.toString(), ttl);
+            if (Boolean.TRUE.equals(bound)) {
+                return Optional.empty();
+            }
+
+            String existing = redisTemplate.opsForValue().get(redisKey);
+            if (existing != null) {
+                log.debug("Idempotency key {} already bound to operation {}", key, existing);
+                return Optional.of(UUID.fromString(existing));
+            }
+            // ключ успел истечь между SET NX и GET, пробуем еще раз
+        }
+
+        throw new IllegalStateException("Не удалось привязать ключ идемпотентности " + key);
+    }
+
+    @Override
+    public Optional<UUID> find(String key) {
+        return Optional.ofNullable(redisTemplate.opsForValue().get(KEY_PREFIX + key))
+                .map(UUID::fromString);
+    }
+}
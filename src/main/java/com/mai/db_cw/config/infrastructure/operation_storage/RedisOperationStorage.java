@@ -3,12 +3,25 @@ package com.mai.db_cw.config.infrastructure.operation_storage;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 
 /**
@@ -16,79 +29,119 @@ import java.util.UUID;
  * @since 03.05.2025
  *
  * Redis-backed implementation of OperationStorage using inner POJO OperationRecord.
- * In Redis JSON: { "operationStatus": "ACCEPTED", "cause": ..., "httpStatus": ... }
+ * In Redis JSON: { "operationStatus": "ACCEPTED", "cause": ..., "httpStatus": ..., "result": ... }
  * In contract methods, OperationStatus enum is used.
+ *
+ *
+ * <p>Каждая операция - отдельный ключ "operation:{id}" со своим TTL: accepted-ttl, пока она
+ * ACCEPTED, и finished-ttl после завершения. Ключи распределены по keyspace, поэтому
+ * хранилище работает с шардированием кластера</p>
+ * <p>Переход статуса - один вызов Lua скрипта (проверка и запись атомарно). Из другого статуса
+ * можно выйти только из ACCEPTED, завершенную операцию никто не перезапишет</p>
+ * <p>Старый hash "operations" периодически переносится в отдельные ключи. Пока включен
+ * legacy-fallback, чтения и переходы ищут операцию и в hash: во время rolling deploy
+ * узлы старой версии продолжают писать туда. Выключать после того, как старых узлов не осталось</p>
  */
 @Slf4j
-@RequiredArgsConstructor
 public class RedisOperationStorage implements OperationStorage {
-    private static final String HASH_KEY = "operations";
-    private final HashOperations<String, String, OperationRecord> hashOps;
+    private static final String KEY_PREFIX = "operation:";
+    private static final String LEGACY_HASH_KEY = "operations";
+    private static final int MIGRATION_SCAN_COUNT = 500;
+
+    private static final long NOT_FOUND = -1L;
+    private static final long REJECTED = 0L;
+
+    /**
+     * KEYS[1] - ключ операции, ARGV[1] - новая запись (JSON), ARGV[2] - целевой статус, ARGV[3] - TTL в мс.
+     * Возвращает -1 если операции нет, 0 если переход запрещен,
+     * 1 если запись обновлена, 2 если операция уже в целевом статусе
+     */
+    private static final RedisScript<Long> TRANSITION = new DefaultRedisScript<>("""
+            local current = redis.call('GET', KEYS[1])
+            if not current then
+                return -1
+            end
+            local status = cjson.decode(current)['operationStatus']
+            if status == ARGV[2] then
+                return 2
+            end
+            if status ~= 'ACCEPTED' then
+                return 0
+            end
+            redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[3])
+            return 1
+            """, Long.class);
+
+    private final RedisTemplate<String, OperationRecord> redisTemplate;
+    private final HashOperations<String, String, OperationRecord> legacyHashOps;
+    private final Duration acceptedTtl;
+    private final Duration finishedTtl;
+
+    /**
+     * искать операции и в старом hash (пока есть узлы старой версии)
+     */
+    private final boolean legacyFallback;
+
+    public RedisOperationStorage(RedisTemplate<String, OperationRecord> redisTemplate,
+                                 Duration acceptedTtl,
+                                 Duration finishedTtl,
+                                 boolean legacyFallback) {
+        this.redisTemplate = redisTemplate;
+        this.legacyHashOps = redisTemplate.opsForHash();
+        this.acceptedTtl = acceptedTtl;
+        this.finishedTtl = finishedTtl;
+        this.legacyFallback = legacyFallback;
+    }
 
     @Override
     public UUID addOperationReturningUUID() {
         UUID id = UUID.randomUUID();
-        OperationRecord rec = new OperationRecord(OperationStatus.ACCEPTED.name(), null, null);
-        hashOps.put(HASH_KEY, id.toString(), rec);
-        log.info("Registered new operation with id: {}", id);
+        addOperation(id);
         return id;
     }
 
     @Override
     public void updateOperationStatus(UUID operationId, OperationStatus status) {
-        String key = operationId.toString();
-        OperationRecord rec = hashOps.get(HASH_KEY, key);
-        log.info("Fetched record for updateOperationStatus id {}: {}", key, rec);
-        if (rec == null) {
-            throw new IllegalArgumentException("Операция с ID " + key + " не найдена.");
-        }
-        rec.setOperationStatus(status.name());
-        hashOps.put(HASH_KEY, key, rec);
-        log.info("Updated operation status for id: {} to {}", key, status);
+        transition(operationId, new OperationRecord(status.name(), null, null, null));
     }
 
     @Override
     public void failOperation(UUID operationId, String cause, HttpStatus httpStatus) {
-        String key = operationId.toString();
-        OperationRecord rec = hashOps.get(HASH_KEY, key);
-        log.info("Fetched record for failOperation id {}: {}", key, rec);
-        if (rec == null) {
-            throw new IllegalArgumentException("Операция с ID " + key + " не найдена.");
-        }
-        rec.setOperationStatus(OperationStatus.FINISHED_UNSUCCESSFULLY.name());
-        rec.setCause(cause);
-        rec.setHttpStatus(httpStatus != null ? httpStatus : HttpStatus.INTERNAL_SERVER_ERROR);
-        hashOps.put(HASH_KEY, key, rec);
-        log.info("Marked operation as failed with id: {}; cause: {}", key, cause);
+        failOperation(operationId, cause, httpStatus, null);
+    }
+
+    @Override
+    public void failOperation(UUID operationId, String cause, HttpStatus httpStatus, String result) {
+        transition(operationId, new OperationRecord(
+                OperationStatus.FINISHED_UNSUCCESSFULLY.name(),
+                cause,
+                httpStatus != null ? httpStatus : HttpStatus.INTERNAL_SERVER_ERROR,
+                result));
     }
 
     @Override
     public OperationStatus getOperationStatus(UUID operationId) {
-        String key = operationId.toString();
-        OperationRecord rec = hashOps.get(HASH_KEY, key);
-        log.info("Fetched record for getOperationStatus id {}: {}", key, rec);
+        OperationRecord rec = findRecord(operationId);
         if (rec == null) {
-            log.info("Status undefined for id: {}", operationId);
+            log.debug("Status undefined for id: {}", operationId);
             return OperationStatus.UNDEFINED;
         }
-        OperationStatus status = OperationStatus.valueOf(rec.getOperationStatus());
-        log.info("Retrieved status {} for id: {}", status, operationId);
-        return status;
+        return OperationStatus.valueOf(rec.getOperationStatus());
     }
 
     @Override
     public void removeOperation(UUID operationId) {
-        String key = operationId.toString();
-        hashOps.delete(HASH_KEY, key);
-        log.info("Removed operation id: {}", key);
+        redisTemplate.delete(key(operationId));
+        if (legacyFallback) {
+            legacyHashOps.delete(LEGACY_HASH_KEY, operationId.toString());
+        }
+        log.debug("Removed operation id: {}", operationId);
     }
 
     @Override
     public boolean containsOperation(UUID operationId) {
-        String key = operationId.toString();
-        boolean exists = hashOps.hasKey(HASH_KEY, key);
-        log.info("Contains operation {}: {}", operationId, exists);
-        return exists;
+        return Boolean.TRUE.equals(redisTemplate.hasKey(key(operationId)))
+                || (legacyFallback && legacyHashOps.hasKey(LEGACY_HASH_KEY, operationId.toString()));
     }
 
     @Override
@@ -96,23 +149,123 @@ public class RedisOperationStorage implements OperationStorage {
         if (operationId == null) {
             throw new IllegalStateException("operation must not be null");
         }
-        String key = operationId.toString();
-        OperationRecord rec = new OperationRecord(OperationStatus.ACCEPTED.name(), null, null);
-        hashOps.put(HASH_KEY, key, rec);
-        log.info("Added operation id: {}", key);
+        OperationRecord rec = new OperationRecord(OperationStatus.ACCEPTED.name(), null, null, null);
+        // SET NX: существующую (в том числе завершенную) операцию не перезаписываем
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key(operationId), rec, acceptedTtl))) {
+            throw new IllegalStateException("Операция с ID " + operationId + " уже существует.");
+        }
+        log.debug("Added operation id: {}", operationId);
     }
 
     @Override
     public void successfully(UUID operationId) {
-        String key = operationId.toString();
-        OperationRecord rec = hashOps.get(HASH_KEY, key);
-        log.info("Fetched record for successfully id {}: {}", key, rec);
-        if (rec == null) {
-            throw new IllegalArgumentException("Операция с ID " + key + " не найдена.");
+        successfully(operationId, null);
+    }
+
+    @Override
+    public void successfully(UUID operationId, String result) {
+        transition(operationId, new OperationRecord(OperationStatus.FINISHED_SUCCESSFULLY.name(), null, null, result));
+    }
+
+    @Override
+    public Optional<String> getOperationResult(UUID operationId) {
+        return Optional.ofNullable(findRecord(operationId))
+                .map(OperationRecord::getResult);
+    }
+
+    private OperationRecord findRecord(UUID operationId) {
+        OperationRecord rec = redisTemplate.opsForValue().get(key(operationId));
+        if (rec == null && legacyFallback) {
+            rec = legacyHashOps.get(LEGACY_HASH_KEY, operationId.toString());
         }
-        rec.setOperationStatus(OperationStatus.FINISHED_SUCCESSFULLY.name());
-        hashOps.put(HASH_KEY, key, rec);
-        log.info("Marked operation as successful: {}", key);
+        return rec;
+    }
+
+    /**
+     * Переносит операции из старого hash "operations" в отдельные ключи с TTL.
+     * Перенос идемпотентный (SET NX, потом HDEL), поэтому его можно запускать на всех узлах сразу.
+     * Запускается по таймеру, т.к. во время rolling deploy старые узлы продолжают писать в hash.
+     * Когда из hash удаляется последнее поле, Redis удаляет и сам ключ
+     */
+    @Scheduled(fixedDelayString = "${operations.redis.legacy-migration-interval:PT5M}")
+    public void migrateLegacyHash() {
+        if (!legacyFallback || !Boolean.TRUE.equals(redisTemplate.hasKey(LEGACY_HASH_KEY))) {
+            return;
+        }
+
+        int migrated = 0;
+        ScanOptions options = ScanOptions.scanOptions().count(MIGRATION_SCAN_COUNT).build();
+        try (Cursor<Map.Entry<String, OperationRecord>> cursor = legacyHashOps.scan(LEGACY_HASH_KEY, options)) {
+            while (cursor.hasNext()) {
+                Map.Entry<String, OperationRecord> entry = cursor.next();
+                migrateLegacyOperation(entry.getKey(), entry.getValue());
+                migrated++;
+            }
+        }
+
+        log.info("Migrated {} operations from legacy hash '{}'", migrated, LEGACY_HASH_KEY);
+    }
+
+    /**
+     * Атомарно заменяет запись, если текущий статус допускает переход
+     */
+    private void transition(UUID operationId, OperationRecord target) {
+        Long result = executeTransition(operationId, target);
+        if ((result == null || result == NOT_FOUND) && legacyFallback) {
+            // операция еще в старом hash: переносим ее и повторяем переход
+            OperationRecord legacy = legacyHashOps.get(LEGACY_HASH_KEY, operationId.toString());
+            if (legacy != null) {
+                migrateLegacyOperation(operationId.toString(), legacy);
+                result = executeTransition(operationId, target);
+            }
+        }
+
+        if (result == null || result == NOT_FOUND) {
+            throw new IllegalArgumentException("Операция с ID " + operationId + " не найдена.");
+        }
+        if (result == REJECTED) {
+            log.warn("Ignored transition of finished operation {} to {}", operationId, target.getOperationStatus());
+            return;
+        }
+        log.debug("Operation {} moved to {}", operationId, target.getOperationStatus());
+    }
+
+    private Long executeTransition(UUID operationId, OperationRecord target) {
+        return redisTemplate.execute(
+                TRANSITION,
+                RedisSerializer.string(),
+                RedisSerializer.string(),
+                List.of(key(operationId)),
+                serialize(target), target.getOperationStatus(), String.valueOf(ttlOf(target).toMillis()));
+    }
+
+    private void migrateLegacyOperation(String field, OperationRecord rec) {
+        byte[] key = key(field).getBytes(StandardCharsets.UTF_8);
+        byte[] value = serialize(rec).getBytes(StandardCharsets.UTF_8);
+        redisTemplate.execute(connection -> connection.stringCommands().set(
+                key, value, Expiration.from(ttlOf(rec)), RedisStringCommands.SetOption.ifAbsent()), true);
+        legacyHashOps.delete(LEGACY_HASH_KEY, field);
+    }
+
+    private Duration ttlOf(OperationRecord rec) {
+        return OperationStatus.ACCEPTED.name().equals(rec.getOperationStatus()) ? acceptedTtl : finishedTtl;
+    }
+
+    /**
+     * Тот же JSON, что пишет шаблон, чтобы запись читалась {@link #getOperationStatus}
+     */
+    @SuppressWarnings("unchecked")
+    private String serialize(OperationRecord rec) {
+        byte[] bytes = ((RedisSerializer<OperationRecord>) redisTemplate.getValueSerializer()).serialize(rec);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String key(UUID operationId) {
+        return key(operationId.toString());
+    }
+
+    private static String key(String operationId) {
+        return KEY_PREFIX + operationId;
     }
 
     /**
@@ -126,5 +279,9 @@ public class RedisOperationStorage implements OperationStorage {
         private String operationStatus;
         private String cause;
         private HttpStatus httpStatus;
+        /**
+         * результат операции (JSON), например итог по слотам серии бронирований
+         */
+        private String result;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+package com.mai.db_cw.config.infrastructure.operation_storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>in-memory хранилище ключей идемпотентности, пара для {@link SimpleInMemoryOperationStorage}</p>
+ * <p>Истекшие ключи перезаписываются при следующем обращении и вычищаются
+ * при каждой новой привязке небольшими порциями</p>
+ */
+@Slf4j
+public class SimpleInMemoryIdempotencyKeyStorage implements IdempotencyKeyStorage {
+
+    private static final int CLEANUP_BATCH = 16;
+
+    private final Map<String, Binding> bindings = new ConcurrentHashMap<>();
+
+    @Override
+    public Optional<UUID> bindIfAbsent(String key, UUID operationId, Duration ttl) {
+        long now = System.currentTimeMillis();
+        Binding candidate = new Binding(operationId, now + ttl.toMillis());
+        Binding actual = bindings.compute(key, (k, current) ->
+                current == null || current.expiresAt() <= now ? candidate : current);
+
+        cleanup(now);
+        if (actual == candidate) {
+            return Optional.empty();
+        }
+
+        log.debug("Idempotency key {} already bound to operation {}", key, actual.operationId());
+        return Optional.of(actual.operationId());
+    }
+
+    @Override
+    public Optional<UUID> find(String key) {
+        Binding binding = bindings.get(key);
+        if (binding == null || binding.expiresAt() <= System.currentTimeMillis()) {
+            return Optional.empty();
+        }
+        return Optional.of(binding.operationId());
+    }
+
+    private void cleanup(long now) {
+        int checked = 0;
+        var iterator = bindings.values().iterator();
+        while (iterator.hasNext() && checked++ < CLEANUP_BATCH) {
+            if (iterator.next().expiresAt() <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private record Binding(UUID operationId, long expiresAt) {
+    }
+}
@@ -1,13 +1,23 @@
 package com.mai.db_cw.config.infrastructure.operation_storage;
 
 import com.fasterxml.uuid.Generators;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <p> in-memory хранилище асинхронных операций с возможностью
@@ -15,14 +25,57 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p>Скоп SINGLETON обеспечивает доступ к данным из различных потоков
  *  в рантайме, т.к. спринговый контекст обеспечивает гарантию
  *  единственности экземпляра бина<p/>
+ * <p>Хранилище ограничено: у операции есть срок жизни (accepted-ttl, пока она ACCEPTED,
+ *  и finished-ttl после завершения), а число операций не больше max-size.
+ *  Операции лежат в FIFO очереди в порядке добавления, при каждой записи
+ *  с головы очереди снимается небольшая порция истекших операций, а при превышении
+ *  max-size вытесняются самые старые. Полного обхода map нет, чтение статуса
+ *  идет без блокировок, истекшая, но еще не вычищенная операция читается как UNDEFINED</p>
  */
 @Slf4j
 @Component
 public class SimpleInMemoryOperationStorage implements OperationStorage {
+
+    private static final int CLEANUP_BATCH = 16;
+
     /**
      * common operation storage
      */
-    private final Map<UUID, OperationStatus> operations = new ConcurrentHashMap<>();
+    private final Map<UUID, Entry> operations = new ConcurrentHashMap<>();
+    /**
+     * операции в порядке добавления
+     */
+    private final Queue<Node> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicLong generations = new AtomicLong();
+    private final ReentrantLock cleanupLock = new ReentrantLock();
+
+    private final long acceptedTtlMillis;
+    private final long finishedTtlMillis;
+    private final int maxSize;
+    private final Counter expired;
+    private final Counter evicted;
+
+    public SimpleInMemoryOperationStorage(
+            MeterRegistry meterRegistry,
+            @Value("${operations.ttl.accepted:PT1H}") Duration acceptedTtl,
+            @Value("${operations.ttl.finished:PT24H}") Duration finishedTtl,
+            @Value("${operations.in-memory.max-size:100000}") int maxSize) {
+        this.acceptedTtlMillis = acceptedTtl.toMillis();
+        this.finishedTtlMillis = finishedTtl.toMillis();
+        this.maxSize = Math.max(1, maxSize);
+
+        Gauge.builder("operations.storage.size", operations, Map::size)
+                .description("Количество операций в in-memory хранилище")
+                .register(meterRegistry);
+        this.expired = Counter.builder("operations.storage.evictions")
+                .description("Количество операций, удаленных из in-memory хранилища")
+                .tag("reason", "expired")
+                .register(meterRegistry);
+        this.evicted = Counter.builder("operations.storage.evictions")
+                .description("Количество операций, удаленных из in-memory хранилища")
+                .tag("reason", "size")
+                .register(meterRegistry);
+    }
 
     /**
      * Добавление новой операции с ACCEPTED статусом.
@@ -32,7 +85,7 @@ public class SimpleInMemoryOperationStorage implements OperationStorage {
     @Override
     public UUID addOperationReturningUUID() {
         UUID operationId = Generators.timeBasedEpochGenerator().generate();
-        operations.put(operationId, OperationStatus.ACCEPTED);
+        register(operationId);
         log.info("new operation register with id: {}", operationId);
         return operationId;
     }
@@ -45,11 +98,7 @@ public class SimpleInMemoryOperationStorage implements OperationStorage {
      */
     @Override
     public void updateOperationStatus(UUID operationId, OperationStatus status) {
-        if (!operations.containsKey(operationId)) {
-            log.warn("operation id not found: {}", operationId);
-            throw new IllegalArgumentException("Операция с ID " + operationId + " не найдена.");
-        }
-        operations.put(operationId, status);
+        transition(operationId, status, null);
     }
 
     /**
@@ -61,13 +110,19 @@ public class SimpleInMemoryOperationStorage implements OperationStorage {
      */
     @Override
     public void failOperation(UUID operationId, String cause, HttpStatus httpStatus) {
-        if (!operations.containsKey(operationId)) {
-            log.warn("operation id not found: {}", operationId);
-            throw new IllegalArgumentException("Операция с ID " + operationId + " не найдена.");
-        }
+        failOperation(operationId, cause, httpStatus, null);
+    }
+
+    /**
+     * Установка статуса ошибки для операции вместе с ее результатом.
+     * @param result результат операции (JSON), может быть null
+     * @throws IllegalArgumentException если операция не найдена.
+     */
+    @Override
+    public void failOperation(UUID operationId, String cause, HttpStatus httpStatus, String result) {
         OperationStatus status = OperationStatus.FINISHED_UNSUCCESSFULLY;
         status.setFailureDetails(cause, httpStatus);
-        operations.put(operationId, status);
+        transition(operationId, status, result);
         log.info("fail operation register with id: {}", operationId);
     }
 
@@ -75,16 +130,15 @@ public class SimpleInMemoryOperationStorage implements OperationStorage {
      * Получение статуса операции.
      * @param operationId UUID операции.
      * @return Текущий статус операции.
-     * @throws IllegalArgumentException если операция не найдена.
      */
     @Override
     public OperationStatus getOperationStatus(UUID operationId) {
-        OperationStatus status = operations.get(operationId);
-        if (status == null) {
+        Entry entry = operations.get(operationId);
+        if (entry == null || entry.isExpired(System.currentTimeMillis())) {
             return OperationStatus.UNDEFINED;
         }
-        log.info("get operation status with id: {}; status: {}", operationId, status);
-        return status;
+        log.debug("get operation status with id: {}; status: {}", operationId, entry.status());
+        return entry.status();
     }
 
     /**
@@ -104,8 +158,8 @@ public class SimpleInMemoryOperationStorage implements OperationStorage {
      */
     @Override
     public boolean containsOperation(UUID operationId) {
-        log.info("contains operation id {}", operationId);
-        return operations.containsKey(operationId);
+        Entry entry = operations.get(operationId);
+        return entry != null && !entry.isExpired(System.currentTimeMillis());
     }
 
     /**
@@ -120,7 +174,7 @@ public class SimpleInMemoryOperationStorage implements OperationStorage {
             throw new IllegalStateException("operation must not be null");
         }
         log.info("add operation id {}", operationId);
-        operations.put(operationId, OperationStatus.ACCEPTED);
+        register(operationId);
     }
 
     /**
@@ -134,6 +188,138 @@ public class SimpleInMemoryOperationStorage implements OperationStorage {
         }
 
         log.info("successfully operation id {}", operationId);
-        operations.put(operationId, OperationStatus.FINISHED_SUCCESSFULLY);
+        transition(operationId, OperationStatus.FINISHED_SUCCESSFULLY, null);
+    }
+
+    /**
+     * выставляет статус операции как FINISHED_SUCCESSFULLY и сохраняет ее результат
+     * @param result результат операции (JSON), может быть null
+     */
+    @Override
+    public void successfully(UUID operationId, String result) {
+        if (operationId == null) {
+            throw new IllegalStateException("operation must not be null");
+        }
+
+        log.info("successfully operation id {}", operationId);
+        transition(operationId, OperationStatus.FINISHED_SUCCESSFULLY, result);
+    }
+
+    /**
+     * Результат операции, сохраненный при завершении
+     * @param operationId UUID операции.
+     * @return результат (JSON) или empty
+     */
+    @Override
+    public Optional<String> getOperationResult(UUID operationId) {
+        Entry entry = operations.get(operationId);
+        if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(entry.result());
+    }
+
+    /**
+     * Текущее количество операций, включая истекшие, но еще не вычищенные
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    private void register(UUID operationId) {
+        long now = System.currentTimeMillis();
+        long generation = generations.incrementAndGet();
+        Entry added = new Entry(OperationStatus.ACCEPTED, null, generation, now + acceptedTtlMillis);
+        // существующую (в том числе завершенную) операцию не перезаписываем, истекшую можно
+        Entry actual = operations.compute(operationId, (id, current) ->
+                current == null || current.isExpired(now) ? added : current);
+        if (actual != added) {
+            throw new IllegalStateException("Операция с ID " + operationId + " уже существует.");
+        }
+        insertionOrder.add(new Node(operationId, generation));
+        cleanup(now);
+    }
+
+    /**
+     * Меняет статус, срок жизни считается заново от момента перехода.
+     * Переходы те же, что в {@link RedisOperationStorage}: менять можно только ACCEPTED,
+     * переход в текущий статус ничего не делает, завершенная операция не меняется
+     */
+    private void transition(UUID operationId, OperationStatus status, String result) {
+        long now = System.currentTimeMillis();
+        long expiresAt = now + (status == OperationStatus.ACCEPTED ? acceptedTtlMillis : finishedTtlMillis);
+        while (true) {
+            Entry current = operations.get(operationId);
+            if (current == null || current.isExpired(now)) {
+                log.warn("operation id not found: {}", operationId);
+                throw new IllegalArgumentException("Операция с ID " + operationId + " не найдена.");
+            }
+            if (current.status() == status) {
+                return;
+            }
+            if (current.status() != OperationStatus.ACCEPTED) {
+                log.warn("Ignored transition of finished operation {} to {}", operationId, status);
+                return;
+            }
+            if (operations.replace(operationId, current, new Entry(status, result, current.generation(), expiresAt))) {
+                break;
+            }
+        }
+        cleanup(now);
+    }
+
+    /**
+     * Снимает с головы очереди удаленные, истекшие и лишние сверх max-size операции.
+     * Истекших за раз снимается не больше CLEANUP_BATCH, вытеснение по размеру не ограничено.
+     * Если очисткой уже занят другой поток, этот ее пропускает
+     */
+    private void cleanup(long now) {
+        if (!cleanupLock.tryLock()) {
+            return;
+        }
+        try {
+            int checked = 0;
+            Node head;
+            while ((head = insertionOrder.peek()) != null) {
+                Entry entry = operations.get(head.operationId());
+                if (entry == null || entry.generation() != head.generation()) {
+                    // операцию удалили или добавили заново, узел устарел
+                    insertionOrder.poll();
+                } else if (operations.size() > maxSize) {
+                    removeHead(head, entry, evicted);
+                } else if (checked++ < CLEANUP_BATCH && entry.isExpired(now)) {
+                    removeHead(head, entry, expired);
+                } else {
+                    break;
+                }
+            }
+        } finally {
+            cleanupLock.unlock();
+        }
+    }
+
+    /**
+     * Если запись успели изменить, узел остается в очереди и проверяется заново
+     */
+    private void removeHead(Node head, Entry entry, Counter counter) {
+        if (operations.remove(head.operationId(), entry)) {
+            insertionOrder.poll();
+            counter.increment();
+        }
+    }
+
+    /**
+     * @param result     результат операции (JSON), сохраненный при завершении
+     * @param generation номер добавления, связывает запись с ее узлом в очереди
+     * @param expiresAt  epoch millis, после которого операция считается удаленной
+     */
+    private record Entry(OperationStatus status, String result, long generation, long expiresAt) {
+
+        boolean isExpired(long now) {
+            return expiresAt <= now;
+        }
+    }
+
+    private record Node(UUID operationId, long generation) {
     }
 }
@@ -0,0 +1,193 @@
+package com.mai.db_cw.config.infrastructure.scheduling;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+
+/**
+ * <p>Запуск @Scheduled джобы ровно на одном узле кластера без внешнего координатора.</p>
+ * <p>Джоба выполняется в транзакции, которая сначала берет
+ * pg_try_advisory_xact_lock по имени джобы: остальные узлы лок не ждут и пропускают тик.
+ * Лок отпускается коммитом или обрывом соединения, если узел упал, поэтому
+ * следующий тик подхватывает любой живой узел</p>
+ * <p>Строка в scheduled_job_runs отсекает повторный запуск той же джобы другим узлом
+ * в том же тике (часы узлов и fixedRate не синхронизированы)</p>
+ * <p>Длинным джобам с DDL одна общая транзакция не подходит: одна ошибка откатывает всю работу,
+ * а ACCESS EXCLUSIVE локи держатся до конца джобы. Для них есть
+ * {@link #runExclusivelyWithSessionLock}: сессионный pg_try_advisory_lock на отдельном соединении,
+ * а транзакциями шагов джоба управляет сама</p>
+ */
+@Slf4j
+@Component
+public class ScheduledJobLock {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DataSource dataSource;
+    private final MeterRegistry meterRegistry;
+    private final String nodeName;
+
+    public ScheduledJobLock(
+            NamedParameterJdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            DataSource dataSource,
+            MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.dataSource = dataSource;
+        this.meterRegistry = meterRegistry;
+        this.nodeName = resolveNodeName();
+    }
+
+    /**
+     * Выполняет джобу, если этот узел взял лок и джобу не запускали последние minInterval
+     *
+     * @param jobName     имя джобы (ключ лока и тег метрик)
+     * @param minInterval минимальный промежуток между запусками на всем кластере
+     * @param job         работа, выполняется в транзакции лока
+     * @return true если джоба выполнялась на этом узле
+     */
+    public boolean runExclusively(String jobName, Duration minInterval, Runnable job) {
+        try {
+            Boolean executed = transactionTemplate.execute(status -> {
+                long lockStart = System.nanoTime();
+                boolean acquired = tryLock(jobName) && claimTick(jobName, minInterval);
+                Timer.builder("scheduler.lock.acquire")
+                        .description("Время взятия лока джобы")
+                        .tag("job", jobName)
+                        .tag("acquired", String.valueOf(acquired))
+                        .register(meterRegistry)
+                        .record(Duration.ofNanos(System.nanoTime() - lockStart));
+
+                if (!acquired) {
+                    log.debug("Scheduled job {} skipped on {}: running elsewhere", jobName, nodeName);
+                    return false;
+                }
+
+                Timer.builder("scheduler.job.duration")
+                        .description("Длительность выполнения джобы")
+                        .tag("job", jobName)
+                        .register(meterRegistry)
+                        .record(job);
+                return true;
+            });
+            return Boolean.TRUE.equals(executed);
+        } catch (RuntimeException e) {
+            log.error("Scheduled job {} failed on {}", jobName, nodeName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Выполняет джобу под сессионным advisory локом. Лок держит отдельное соединение
+     * до конца джобы, отметка тика пишется короткой транзакцией, сама джоба
+     * выполняется вне транзакции лока. Если узел упал, лок отпускается с обрывом соединения
+     *
+     * @param jobName     имя джобы (ключ лока и тег метрик)
+     * @param minInterval минимальный промежуток между запусками на всем кластере
+     * @param job         работа, транзакциями шагов управляет сама
+     * @return true если джоба выполнялась на этом узле
+     */
+    public boolean runExclusivelyWithSessionLock(String jobName, Duration minInterval, Runnable job) {
+        try (Connection lockConnection = dataSource.getConnection()) {
+            long lockStart = System.nanoTime();
+            boolean locked = advisoryLock(lockConnection, "SELECT pg_try_advisory_lock(hashtext(?))", jobName);
+            try {
+                boolean acquired = locked
+                        && Boolean.TRUE.equals(transactionTemplate.execute(status -> claimTick(jobName, minInterval)));
+                Timer.builder("scheduler.lock.acquire")
+                        .description("Время взятия лока джобы")
+                        .tag("job", jobName)
+                        .tag("acquired", String.valueOf(acquired))
+                        .register(meterRegistry)
+                        .record(Duration.ofNanos(System.nanoTime() - lockStart));
+
+                if (!acquired) {
+                    log.debug("Scheduled job {} skipped on {}: running elsewhere", jobName, nodeName);
+                    return false;
+                }
+
+                Timer.builder("scheduler.job.duration")
+                        .description("Длительность выполнения джобы")
+                        .tag("job", jobName)
+                        .register(meterRegistry)
+                        .record(job);
+                return true;
+            } finally {
+                if (locked) {
+                    unlock(lockConnection, jobName);
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            log.error("Scheduled job {} failed on {}", jobName, nodeName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Если отпустить лок не удалось, соединение обрывается, чтобы оно не вернулось в пул с локом
+     */
+    private void unlock(Connection lockConnection, String jobName) throws SQLException {
+        try {
+            advisoryLock(lockConnection, "SELECT pg_advisory_unlock(hashtext(?))", jobName);
+        } catch (SQLException | RuntimeException e) {
+            log.warn("Failed to release lock of job {}, aborting connection", jobName, e);
+            lockConnection.abort(Runnable::run);
+        }
+    }
+
+    private static boolean advisoryLock(Connection connection, String sql, String jobName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, jobName);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private boolean tryLock(String jobName) {
+        String sql = "SELECT pg_try_advisory_xact_lock(hashtext(:jobName))";
+
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(sql,
+                new MapSqlParameterSource("jobName", jobName), Boolean.class));
+    }
+
+    /**
+     * Отмечает запуск джобы, если с прошлого запуска прошло не меньше minInterval
+     */
+    private boolean claimTick(String jobName, Duration minInterval) {
+        String sql = "INSERT INTO scheduled_job_runs (job_name, last_started_at, node_name) " +
+                "VALUES (:jobName, now(), :nodeName) " +
+                "ON CONFLICT (job_name) DO UPDATE " +
+                "SET last_started_at = now(), node_name = :nodeName " +
+                "WHERE scheduled_job_runs.last_started_at <= now() - make_interval(secs => :minIntervalSeconds)";
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("jobName", jobName)
+                .addValue("nodeName", nodeName)
+                .addValue("minIntervalSeconds", minInterval.toMillis() / 1000.0);
+
+        return jdbcTemplate.update(sql, params) > 0;
+    }
+
+    private static String resolveNodeName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+}
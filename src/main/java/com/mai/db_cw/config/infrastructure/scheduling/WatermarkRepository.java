@@ -0,0 +1,41 @@
+package com.mai.db_cw.config.infrastructure.scheduling;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Хранение водяных знаков (последний обработанный момент) инкрементальных джоб
+ */
+@Repository
+@RequiredArgsConstructor
+public class WatermarkRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public Optional<LocalDateTime> findWatermark(String jobName) {
+        String sql = "SELECT watermark FROM scheduler_watermarks WHERE job_name = :jobName";
+
+        return jdbcTemplate.query(sql, new MapSqlParameterSource("jobName", jobName),
+                        (rs, c) -> rs.getTimestamp("watermark").toLocalDateTime())
+                .stream()
+                .findFirst();
+    }
+
+    public void saveWatermark(String jobName, LocalDateTime watermark) {
+        String sql = "INSERT INTO scheduler_watermarks (job_name, watermark, modified_time) " +
+                "VALUES (:jobName, :watermark, now()) " +
+                "ON CONFLICT (job_name) DO UPDATE " +
+                "SET watermark = :watermark, modified_time = now()";
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("jobName", jobName)
+                .addValue("watermark", watermark);
+
+        jdbcTemplate.update(sql, params);
+    }
+}
@@ -0,0 +1,64 @@
+package com.mai.db_cw.config.infrastructure.utility;
+
+import com.mai.db_cw.config.infrastructure.exceptions.OperationRejectedException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * <p>Отдельный ограниченный пул для записи потоковых (NDJSON) ответов.</p>
+ * <p>Поток держит соединение с БД все время записи ответа, поэтому он не идет через
+ * общий executor с семафором asyncDbPermits и не учитывается в очереди асинхронных
+ * операций: иначе несколько медленных клиентов занимают все разрешения на БД</p>
+ * <p>Пул не регистрируется бином, чтобы спринг не отключил свой executor для @Async</p>
+ */
+@Component
+public class NdjsonStreamExecutor {
+
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(5);
+
+    private final ThreadPoolTaskExecutor executor;
+    private final int maxConcurrent;
+
+    public NdjsonStreamExecutor(
+            MeterRegistry meterRegistry,
+            @Value("${reservations.stream.max-concurrent:4}") int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+        this.executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxConcurrent);
+        executor.setMaxPoolSize(maxConcurrent);
+        // небольшой запас очереди на гонку между проверкой admit() и запуском задачи
+        executor.setQueueCapacity(maxConcurrent);
+        executor.setThreadNamePrefix("ndjson-stream-");
+        executor.initialize();
+
+        Gauge.builder("reservations.stream.active", executor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("Количество потоковых ответов, которые пишутся сейчас")
+                .register(meterRegistry);
+    }
+
+    public AsyncTaskExecutor executor() {
+        return executor;
+    }
+
+    /**
+     * Проверка, что есть свободный поток, до начала ответа,
+     * чтобы отказ ушел обычным ответом 503
+     */
+    public void admit() {
+        if (executor.getActiveCount() + executor.getQueueSize() >= maxConcurrent) {
+            throw new OperationRejectedException("Слишком много одновременных выгрузок, повторите позже", RETRY_AFTER);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
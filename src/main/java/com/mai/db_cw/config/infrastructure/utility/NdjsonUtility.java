@@ -0,0 +1,60 @@
+package com.mai.db_cw.config.infrastructure.utility;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.experimental.UtilityClass;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * утилитный класс для потоковой отдачи больших выборок в формате NDJSON:
+ * одна строка - один JSON объект, строки пишутся в сокет по мере чтения из БД
+ */
+@UtilityClass
+public class NdjsonUtility {
+
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType(APPLICATION_NDJSON_VALUE);
+
+    /**
+     * Ответ, тело которого пишется построчно. producer получает приемник строк
+     * и вызывается уже при записи тела, поэтому проверки (404, 403) нужно делать до вызова
+     *
+     * @param objectMapper маппер спринга, чтобы формат дат совпадал с обычными ответами
+     * @param producer     читает строки (например курсором из БД) и передает их в приемник
+     */
+    public static <T> ResponseEntity<StreamingResponseBody> ndjson(ObjectMapper objectMapper,
+                                                                   Consumer<Consumer<T>> producer) {
+        // без flush на каждую строку, буфер генератора сбрасывается по мере заполнения
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.setRootValueSeparator(new SerializedString("\n"));
+                producer.accept(row -> {
+                    try {
+                        writer.writeValue(generator, row);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeRaw('\n');
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+
+        return ResponseEntity
+                .ok()
+                .contentType(APPLICATION_NDJSON)
+                .body(body);
+    }
+}
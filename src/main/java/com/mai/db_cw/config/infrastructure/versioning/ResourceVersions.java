@@ -0,0 +1,138 @@
+package com.mai.db_cw.config.infrastructure.versioning;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>Счетчики версий ресурсов в Redis для ETag и условных GET</p>
+ * <p>Счетчик справочной таблицы увеличивается при каждой записи в нее,
+ * счетчик дня - при каждом изменении занятости слотов этого дня (брони и удержания).
+ * ETag строится только из счетчиков, поэтому 304 отдается без запроса в Postgres
+ * и без сериализации ответа. Счетчики общие для всех узлов</p>
+ * <p>Счетчик дня живет до конца дня плюс slots-day-retention (и не меньше retention
+ * от последнего изменения), чтобы ключи прошедших дней не копились в Redis</p>
+ * <p>Если Redis недоступен, ETag не выдается и ответ строится как обычно</p>
+ */
+@Slf4j
+@Component
+public class ResourceVersions {
+
+    public static final String MACHINES = "machines";
+    public static final String DORMITORIES = "dormitories";
+
+    private static final String TABLE_PREFIX = "resource-version:table:";
+    private static final String SLOTS_DAY_PREFIX = "resource-version:slots-day:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final Duration slotsDayRetention;
+
+    public ResourceVersions(
+            StringRedisTemplate redisTemplate,
+            @Value("${resource-versions.slots-day-retention:P14D}") Duration slotsDayRetention) {
+        this.redisTemplate = redisTemplate;
+        this.slotsDayRetention = slotsDayRetention;
+    }
+
+    /**
+     * Увеличивает версию справочной таблицы, вызывать после успешной записи
+     */
+    public void bumpTable(String table) {
+        increment(TABLE_PREFIX + table);
+    }
+
+    /**
+     * Увеличивает версию занятости слотов дня, вызывать после коммита изменения
+     */
+    public void bumpSlotsDay(LocalDate date) {
+        String key = SLOTS_DAY_PREFIX + date;
+        if (!increment(key)) {
+            return;
+        }
+
+        Instant dayExpiry = date.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().plus(slotsDayRetention);
+        Instant minExpiry = Instant.now().plus(slotsDayRetention);
+        try {
+            redisTemplate.expireAt(key, dayExpiry.isAfter(minExpiry) ? dayExpiry : minExpiry);
+        } catch (DataAccessException e) {
+            log.warn("Failed to set expiry of resource version {}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * Сильный ETag по версиям справочных таблиц
+     *
+     * @param resource имя ресурса (чтобы разные ресурсы не давали одинаковый ETag)
+     * @param tables   таблицы, из которых строится ресурс
+     * @return ETag в кавычках или null, если версии недоступны
+     */
+    public String tablesETag(String resource, String... tables) {
+        List<String> keys = new ArrayList<>(tables.length);
+        for (String table : tables) {
+            keys.add(TABLE_PREFIX + table);
+        }
+        return etag(resource, keys);
+    }
+
+    /**
+     * Сильный ETag по версиям справочных таблиц и занятости дней периода
+     *
+     * @param resource  имя ресурса вместе с параметрами запроса
+     * @param startDate первый день периода
+     * @param endDate   последний день периода включительно
+     * @param tables    таблицы, из которых строится ресурс
+     * @return ETag в кавычках или null, если версии недоступны
+     */
+    public String slotsETag(String resource, LocalDate startDate, LocalDate endDate, String... tables) {
+        List<String> keys = new ArrayList<>();
+        for (String table : tables) {
+            keys.add(TABLE_PREFIX + table);
+        }
+        for (LocalDate date = startDate; !date.isAfter(endDate); date = date.plusDays(1)) {
+            keys.add(SLOTS_DAY_PREFIX + date);
+        }
+        return etag(resource, keys);
+    }
+
+    private String etag(String resource, List<String> keys) {
+        List<String> versions;
+        try {
+            versions = redisTemplate.opsForValue().multiGet(keys);
+        } catch (DataAccessException e) {
+            log.warn("Resource versions are unavailable, responding without ETag: {}", e.getMessage());
+            return null;
+        }
+        if (versions == null) {
+            return null;
+        }
+
+        StringBuilder source = new StringBuilder(resource);
+        for (String version : versions) {
+            source.append('|').append(Objects.requireNonNullElse(version, "0"));
+        }
+        return '"' + DigestUtils.md5DigestAsHex(source.toString().getBytes(StandardCharsets.UTF_8)) + '"';
+    }
+
+    private boolean increment(String key) {
+        try {
+            redisTemplate.opsForValue().increment(key);
+            return true;
+        } catch (DataAccessException e) {
+            // до следующей записи клиенты со старым ETag будут получать 304 на устаревшие данные
+            log.error("Failed to bump resource version {}", key, e);
+            return false;
+        }
+    }
+}
@@ -1,13 +1,27 @@
 package com.mai.db_cw.dormitory;
 
+import com.mai.db_cw.config.infrastructure.operation_storage.IdempotentOperationRegistry;
+import com.mai.db_cw.config.infrastructure.operation_storage.OperationAdmissionControl;
 import com.mai.db_cw.config.infrastructure.operation_storage.OperationStorage;
+import com.mai.db_cw.config.infrastructure.versioning.ResourceVersions;
+import com.mai.db_cw.machine_time_slots.MachineSlotService;
+import com.mai.db_cw.machine_time_slots.NextFreeSlotService;
+import com.mai.db_cw.machine_time_slots.dto.FreeSlotResponse;
+import com.mai.db_cw.machine_time_slots.dto.MachineTimeSlotResponse;
+import com.mai.db_cw.machine_time_slots.dto.SlotBitmapResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import java.security.Principal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
 
@@ -21,37 +35,135 @@ public class DormController {
 
     private final DormitoryRepository dormitoryRepository;
     private final OperationStorage operationStorage;
+    private final IdempotentOperationRegistry idempotentOperationRegistry;
+    private final OperationAdmissionControl admissionControl;
+    private final MachineSlotService machineSlotService;
+    private final ResourceVersions resourceVersions;
+    private final NextFreeSlotService nextFreeSlotService;
 
     @GetMapping("/get-all")
-    public ResponseEntity<List<Dormitory>> getAllDormitories() {
+    public ResponseEntity<List<Dormitory>> getAllDormitories(WebRequest webRequest) {
+        if (webRequest.checkNotModified(resourceVersions.tablesETag("dormitories", ResourceVersions.DORMITORIES))) {
+            return null;
+        }
+
         return ResponseEntity
                 .ok()
                 .body(dormitoryRepository.findAll());
     }
 
+    /**
+     * Доступность всех машинок общежития за период (вместо запроса слотов по каждой машинке)
+     *
+     * @param dormId        общежитие
+     * @param startDate     первый день периода
+     * @param endDate       последний день периода включительно
+     * @param machineTypeId тип машинки, если нужен только он
+     * @return слоты каждой машинки общежития
+     */
+    @GetMapping("/{dormId}/availability")
+    public ResponseEntity<MachineTimeSlotResponse> getDormitoryAvailability(
+            @PathVariable UUID dormId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false) Integer machineTypeId,
+            WebRequest webRequest) {
+        String etag = machineSlotService.getDormitoryAvailabilityETag(dormId, machineTypeId, startDate, endDate, "slots");
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
+
+        return ResponseEntity
+                .ok()
+                .body(machineSlotService.getDormitoryAvailability(dormId, machineTypeId, startDate, endDate));
+    }
+
+    /**
+     * Та же доступность в компактном виде (битовая карта по дням, см. {@link SlotBitmapResponse}).
+     * Выбирается параметром format=bitmap или заголовком Accept: {@value SlotBitmapResponse#MEDIA_TYPE}
+     */
+    @GetMapping(value = "/{dormId}/availability", params = "format=bitmap")
+    public ResponseEntity<SlotBitmapResponse> getDormitoryAvailabilityBitmap(
+            @PathVariable UUID dormId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false) Integer machineTypeId,
+            WebRequest webRequest) {
+        String etag = machineSlotService.getDormitoryAvailabilityETag(dormId, machineTypeId, startDate, endDate, "bitmap");
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
+
+        return ResponseEntity
+                .ok()
+                .body(machineSlotService.getDormitoryAvailabilityBitmap(dormId, machineTypeId, startDate, endDate));
+    }
+
+    @GetMapping(value = "/{dormId}/availability", produces = SlotBitmapResponse.MEDIA_TYPE)
+    public ResponseEntity<SlotBitmapResponse> getDormitoryAvailabilityBitmapByAccept(
+            @PathVariable UUID dormId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false) Integer machineTypeId,
+            WebRequest webRequest) {
+        return getDormitoryAvailabilityBitmap(dormId, startDate, endDate, machineTypeId, webRequest);
+    }
+
+    /**
+     * Ближайшие свободные окна на машинках общежития (не больше одного на машинку)
+     *
+     * @param dormId        общежитие
+     * @param machineTypeId тип машинки, если нужен только он
+     * @param after         окно должно начинаться не раньше, по умолчанию сейчас
+     * @param minDuration   минимальная длина окна (ISO-8601, например PT1H)
+     * @param limit         сколько окон вернуть
+     * @param days          на сколько дней вперед искать
+     * @return окна в порядке начала
+     */
+    @GetMapping("/{dormId}/next-free")
+    public ResponseEntity<List<FreeSlotResponse>> findNextFreeSlots(
+            @PathVariable UUID dormId,
+            @RequestParam(required = false) Integer machineTypeId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime after,
+            @RequestParam(defaultValue = "PT1H") Duration minDuration,
+            @RequestParam(defaultValue = "5") int limit,
+            @RequestParam(defaultValue = "30") int days) {
+        return ResponseEntity
+                .ok()
+                .body(nextFreeSlotService.findNextFree(dormId, machineTypeId, after, minDuration, limit, days));
+    }
+
     @PreAuthorize("hasRole('ADMIN')")
     @DeleteMapping("/del/{dormId}")
     public ResponseEntity<UUID> delDormitories(@PathVariable UUID dormId) {
-        operationStorage.addOperation(dormId);
-        dormitoryRepository.deleteAsync(dormId);
+        admissionControl.admit("dormitory-delete");
+        // у каждого удаления своя операция: повторное удаление не возвращает завершенную операцию в ACCEPTED
+        UUID operationId = operationStorage.addOperationReturningUUID();
+        dormitoryRepository.deleteAsync(dormId, operationId);
 
         return ResponseEntity
                 .status(HttpStatus.ACCEPTED)
-                .body(dormId);
+                .header("Location", "/api/dorm/status/" + operationId)
+                .body(operationId);
     }
 
     @PreAuthorize("hasRole('ADMIN')")
     @PostMapping("/add")
     public ResponseEntity<UUID> addNewDormitory(
             @RequestParam String name,
-            @RequestParam String address) {
-        UUID randomId = operationStorage.addOperationReturningUUID();
-        dormitoryRepository.save(Dormitory
-                .builder()
-                .id(randomId)
-                .name(name)
-                .address(address)
-                .build());
+            @RequestParam String address,
+            @RequestHeader(value = IdempotentOperationRegistry.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            Principal principal) {
+        var registration = idempotentOperationRegistry.register("dormitory:" + principal.getName(), idempotencyKey);
+        UUID randomId = registration.operationId();
+        if (!registration.duplicate()) {
+            dormitoryRepository.save(Dormitory
+                    .builder()
+                    .id(randomId)
+                    .name(name)
+                    .address(address)
+                    .build());
+        }
 
         return ResponseEntity
                 .status(HttpStatus.ACCEPTED)
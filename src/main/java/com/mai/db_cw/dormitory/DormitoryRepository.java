@@ -2,8 +2,11 @@ package com.mai.db_cw.dormitory;
 
 import com.mai.db_cw.config.infrastructure.exceptions.ApplicationException;
 import com.mai.db_cw.config.infrastructure.operation_storage.OperationStorage;
+import com.mai.db_cw.config.infrastructure.versioning.ResourceVersions;
+import com.mai.db_cw.dormitory.event.DormitoryDeletedEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.RowMapper;
@@ -24,6 +27,8 @@ public class DormitoryRepository {
 
     private final NamedParameterJdbcTemplate jdbcTemplate;
     private final OperationStorage operationStorage;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ResourceVersions resourceVersions;
 
     private static final RowMapper<Dormitory> dormitoryRowMapper = (rs, i) ->
             Dormitory.builder()
@@ -70,7 +75,7 @@ public class DormitoryRepository {
     }
 
     @Async
-    public void deleteAsync(UUID dormId) {
+    public void deleteAsync(UUID dormId, UUID operationId) {
         try {
             log.info("delete dorm with id: {}", dormId);
             String sql = "delete from dormitories where id = :dormId";
@@ -78,14 +83,18 @@ public class DormitoryRepository {
                     .addValue("dormId", dormId);
 
             jdbcTemplate.update(sql, params);
-            operationStorage.successfully(dormId);
+            // машинки общежития удаляются каскадно
+            resourceVersions.bumpTable(ResourceVersions.DORMITORIES);
+            resourceVersions.bumpTable(ResourceVersions.MACHINES);
+            eventPublisher.publishEvent(new DormitoryDeletedEvent(dormId));
+            operationStorage.successfully(operationId);
         } catch (
                 ApplicationException e) {
-            operationStorage.failOperation(dormId, e.getMessage(), e.getHttpStatus());
+            operationStorage.failOperation(operationId, e.getMessage(), e.getHttpStatus());
         } catch (DataIntegrityViolationException e) {
-            operationStorage.failOperation(dormId, e.getMessage(), HttpStatus.CONFLICT);
+            operationStorage.failOperation(operationId, e.getMessage(), HttpStatus.CONFLICT);
         } catch (RuntimeException e) {
-            operationStorage.failOperation(dormId, e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            operationStorage.failOperation(operationId, e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
@@ -104,6 +113,7 @@ public class DormitoryRepository {
                     .addValue("address", build.getAddress());
 
             jdbcTemplate.update(sql, params);
+            resourceVersions.bumpTable(ResourceVersions.DORMITORIES);
             operationStorage.successfully(build.getId());
         } catch (ApplicationException e) {
             operationStorage.failOperation(build.getId(), e.getMessage(), e.getHttpStatus());
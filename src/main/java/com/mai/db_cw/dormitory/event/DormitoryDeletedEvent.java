@@ -0,0 +1,9 @@
+package com.mai.db_cw.dormitory.event;
+
+import java.util.UUID;
+
+/**
+ * Событие об удалении общежития (вместе с ним каскадно удаляются его машинки)
+ */
+public record DormitoryDeletedEvent(UUID dormitoryId) {
+}
@@ -0,0 +1,25 @@
+package com.mai.db_cw.machine_time_slots;
+
+import com.mai.db_cw.config.infrastructure.versioning.ResourceVersions;
+import com.mai.db_cw.reservation.event.ReservationChangedEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Увеличивает версию занятости дня при изменении брони, чтобы ETag доступности сменился
+ */
+@Component
+@RequiredArgsConstructor
+public class AvailabilityVersionListener {
+
+    private final ResourceVersions resourceVersions;
+
+    /**
+     * Срабатывает после коммита: до коммита клиент мог бы закешировать старые данные под новым ETag
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onReservationChanged(ReservationChangedEvent event) {
+        resourceVersions.bumpSlotsDay(event.resDate());
+    }
+}
@@ -2,14 +2,12 @@ package com.mai.db_cw.machine_time_slots;
 
 import com.mai.db_cw.dormitory.DormitoryRepository;
 import com.mai.db_cw.config.infrastructure.exceptions.ApplicationException;
+import com.mai.db_cw.config.infrastructure.versioning.ResourceVersions;
 import com.mai.db_cw.machine_time_slots.dto.MachineTimeSlotResponse;
+import com.mai.db_cw.machine_time_slots.dto.SlotBitmapResponse;
 import com.mai.db_cw.machines.Machine;
 import com.mai.db_cw.machines.MachineService;
-import com.mai.db_cw.machines.dao.MachineRepository;
-import com.mai.db_cw.reservation.Reservation;
-import com.mai.db_cw.reservation.dao.ReservationRepository;
-import com.mai.db_cw.time_slot.TimeSlot;
-import com.mai.db_cw.time_slot.TimeSlotRepository;
+import com.mai.db_cw.reservation.SlotHoldService;
 import com.mai.db_cw.time_slot.dto.TimeSlotResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -17,7 +15,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
-import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -29,68 +27,73 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class MachineSlotService {
 
-    private final MachineTimeSlotRepository machineSlotRepository;
-    private final TimeSlotRepository timeSlotRepository;
-    private final MachineRepository machineRepository;
+    /**
+     * ограничение периода для доступности по общежитию
+     */
+    private static final int MAX_AVAILABILITY_DAYS = 62;
+    /**
+     * ограничение периода для слотов одной машинки
+     */
+    private static final int MAX_MACHINE_SLOT_WEEKS = 9;
+
     private final DormitoryRepository dormitoryRepository;
     private final MachineService machineService;
-    private final ReservationRepository reservationRepository;
+    private final SlotHoldService slotHoldService;
+    private final MachineSlotViewRepository machineSlotViewRepository;
+    private final MachineSlotsReadModel machineSlotsReadModel;
+    private final SlotAvailabilityCache slotAvailabilityCache;
+    private final SlotGridRegistry slotGridRegistry;
+    private final ResourceVersions resourceVersions;
 
     /**
      * Получает все машины с их временными слотами.
+     * Данные берутся одним запросом с join и кешируются в {@link MachineSlotsReadModel}
      *
      * @return DTO с информацией о машинах и их временных слотах.
      */
     public MachineTimeSlotResponse getAllMachinesWithTimeSlots() {
-        List<Machine> machines = machineRepository.findAllMachines();
-        if (machines.isEmpty()) {
+        return machineSlotsReadModel.get(this::loadAllMachinesWithTimeSlots);
+    }
+
+    private MachineTimeSlotResponse loadAllMachinesWithTimeSlots() {
+        List<MachineSlotViewRepository.MachineSlotRow> rows = machineSlotViewRepository.findAllMachinesWithSlots();
+        if (rows.isEmpty()) {
             log.error("No machines found");
             return MachineTimeSlotResponse.builder()
                     .slots(Collections.emptyList())
                     .build();
         }
 
-        List<MachineTimeSlot> allMachineTimeSlots = machineSlotRepository.findAllMachineTimeSlots();
-        if (allMachineTimeSlots.isEmpty()) {
+        if (rows.stream().allMatch(row -> row.timeSlotId() == null)) {
             log.error("No machine slots found");
             throw new ApplicationException("No machines slots found, illegal state", HttpStatus.NOT_FOUND);
         }
 
-        // Группируем временные слоты по машине
-        Map<UUID, List<MachineTimeSlot>> machineSlotsMap = allMachineTimeSlots.stream()
-                .collect(Collectors.groupingBy(MachineTimeSlot::getMachineId));
-        log.debug("Grouped by slots list: {}", machineSlotsMap);
+        // Группируем строки по машине, сохраняя порядок из запроса
+        Map<UUID, List<MachineSlotViewRepository.MachineSlotRow>> rowsByMachine = rows.stream()
+                .collect(Collectors.groupingBy(MachineSlotViewRepository.MachineSlotRow::machineId,
+                        LinkedHashMap::new, Collectors.toList()));
 
-        var machineSlots = machines
+        var machineSlots = rowsByMachine.values()
                 .stream()
-                .map(machine -> {
-                    List<MachineTimeSlot> machineTimeSlotList = machineSlotsMap
-                            .getOrDefault(machine.getId(), Collections.emptyList());
-                    log.debug("machine Time Slot List: {}", machineTimeSlotList);
-                    List<TimeSlotResponse> timeSlots = machineTimeSlotList
-                            .stream()
-                            .map(mts -> {
-                                TimeSlot ts = timeSlotRepository.findById(mts.getTimeSlotId())
-                                        .orElseThrow(() -> new ApplicationException("TimeSlot not found", HttpStatus.NOT_FOUND));
-                                log.debug("time slot found by id: {}", mts.getTimeSlotId());
-                                return TimeSlotResponse.builder()
-                                        .id(ts.getId())
-                                        .dayOfWeek(ts.getDayOfWeek())
-                                        .startTime(ts.getStartTime())
-                                        .endTime(ts.getEndTime())
-                                        .isAvailable(mts.getIsAvailable())
-                                        .build();
-                            }).toList();
-
-                    var dormitory = dormitoryRepository
-                            .findDormitoryById(machine.getDormitoryId())
-                            .orElseThrow(() -> new ApplicationException("Dormitory not found", HttpStatus.NOT_FOUND));
+                .map(machineRows -> {
+                    var machine = machineRows.get(0);
+                    List<TimeSlotResponse> timeSlots = machineRows.stream()
+                            .filter(row -> row.timeSlotId() != null)
+                            .map(row -> TimeSlotResponse.builder()
+                                    .id(row.timeSlotId())
+                                    .dayOfWeek(row.dayOfWeek())
+                                    .startTime(row.startTime())
+                                    .endTime(row.endTime())
+                                    .isAvailable(row.isAvailable())
+                                    .build())
+                            .toList();
 
                     return MachineTimeSlotResponse.TimeSlotsForSingleMachine.builder()
-                            .machineId(machine.getId())
-                            .machineName(machine.getName())
-                            .dormitoryName(dormitory.getName())
-                            .dormitoryAddress(dormitory.getAddress())
+                            .machineId(machine.machineId())
+                            .machineName(machine.machineName())
+                            .dormitoryName(machine.dormitoryName())
+                            .dormitoryAddress(machine.dormitoryAddress())
                             .timeSlots(timeSlots)
                             .build();
                 }).toList();
@@ -101,6 +104,11 @@ public class MachineSlotService {
     }
 
     public MachineTimeSlotResponse getMachineSlots(UUID machineId, LocalDate startDate, int weeks) {
+        if (weeks < 1 || weeks > MAX_MACHINE_SLOT_WEEKS) {
+            throw new ApplicationException("Период должен быть от 1 до " + MAX_MACHINE_SLOT_WEEKS + " недель",
+                    HttpStatus.BAD_REQUEST);
+        }
+
         // Получаем информацию о машине
         Machine machine = machineService.findById(machineId)
                 .orElseThrow(() -> new ApplicationException("Machine not found", HttpStatus.NOT_FOUND));
@@ -109,30 +117,25 @@ public class MachineSlotService {
         LocalDate endDate = startDate.plusWeeks(weeks);
         List<LocalDate> allDates = generateDates(startDate, endDate);
 
-        // Генерируем временные слоты (например, каждый день с 08:00 до 17:00, шаг 1 час)
-        List<TimeSlotResponse> generatedSlots = generateTimeSlotsForPeriod(allDates);
+        // Сетка машинки задается шаблоном ее типа и общежития
+        SlotGrid grid = slotGridRegistry.gridFor(machineId);
 
-        // Получаем список занятых слотов из reservations для данного machineId и периода
-        // Нам нужно проверить наличие бронирований.
-        List<Reservation> reservations = reservationRepository.findReservationsForMachineInPeriod(machineId, startDate, endDate);
+        // Занятость по дням берем из кеша (машинка, неделя), в БД идем только за недостающими неделями
+        Map<LocalDate, Long> reservedByDate = slotAvailabilityCache.occupancy(machineId, startDate, endDate);
 
-        Map<LocalDate, List<Reservation>> reservationsByDate = reservations.stream()
-                .collect(Collectors.groupingBy(Reservation::getResDate));
+        // удержанные слоты (двухфазное бронирование) тоже показываем занятыми
+        Map<LocalDate, Long> heldByDate = slotHoldService.findHeldSlots(machineId, allDates);
 
-        generatedSlots.forEach(slot -> {
-            // Находим бронирования для текущей даты слота
-            List<Reservation> dailyReservations = reservationsByDate.getOrDefault(slot.getDate(), Collections.emptyList());
-
-            // Проверяем, пересекается ли слот с каким-либо бронированием из reservations
-            boolean isReserved = dailyReservations.stream()
-                    .anyMatch(reservation ->
-                            slot.getStartTime().equals(reservation.getStartTime()) &&
-                                    slot.getEndTime().equals(reservation.getEndTime())
-                    );
+        long[] freeMasks = new long[allDates.size()];
+        for (int day = 0; day < freeMasks.length; day++) {
+            LocalDate date = allDates.get(day);
+            freeMasks[day] = grid.fullMask()
+                    & ~reservedByDate.getOrDefault(date, 0L)
+                    & ~heldByDate.getOrDefault(date, 0L);
+        }
 
-            // Обновляем доступность слота
-            slot.setAvailable(!isReserved);
-        });
+        // слоты в ответе не материализуем: TimeSlotResponse создаются при сериализации
+        List<TimeSlotResponse> generatedSlots = new SlotGridView(grid, startDate, freeMasks);
 
         var dormitory = dormitoryRepository.findDormitoryById(machine.getDormitoryId()).orElseThrow();
 
@@ -150,6 +153,139 @@ public class MachineSlotService {
                 .build();
     }
 
+    /**
+     * Доступность всех машинок общежития за период одним ответом.
+     * Брони всех машинок читаются одним запросом, удержания - одним MGET,
+     * маски по машинкам считаются параллельно
+     *
+     * @param dormitoryId   общежитие
+     * @param machineTypeId тип машинки, null - все типы
+     * @param startDate     первый день периода
+     * @param endDate       последний день периода включительно
+     * @return DTO со слотами каждой машинки общежития
+     */
+    public MachineTimeSlotResponse getDormitoryAvailability(UUID dormitoryId, Integer machineTypeId,
+                                                            LocalDate startDate, LocalDate endDate) {
+        var machineSlots = computeDormitoryAvailability(dormitoryId, machineTypeId, startDate, endDate)
+                .stream()
+                .map(machine -> MachineTimeSlotResponse.TimeSlotsForSingleMachine.builder()
+                        .machineId(machine.machineId())
+                        .machineName(machine.machineName())
+                        .dormitoryName(machine.dormitoryName())
+                        .dormitoryAddress(machine.dormitoryAddress())
+                        .timeSlots(new SlotGridView(machine.grid(), startDate, machine.freeMasks()))
+                        .build())
+                .toList();
+
+        return MachineTimeSlotResponse.builder()
+                .slots(machineSlots)
+                .build();
+    }
+
+    /**
+     * ETag доступности общежития по счетчикам версий, без запроса в БД.
+     * Удержания истекают без записи, поэтому в ETag входит номер интервала длиной в TTL удержания:
+     * истекшее удержание перестает показываться не позже чем через один TTL
+     *
+     * @param format формат ответа, разные форматы имеют разные ETag
+     * @return ETag или null, если версии недоступны
+     */
+    public String getDormitoryAvailabilityETag(UUID dormitoryId, Integer machineTypeId,
+                                               LocalDate startDate, LocalDate endDate, String format) {
+        long holdBucket = System.currentTimeMillis() / slotHoldService.getHoldTtl().toMillis();
+        String resource = "dorm-availability:" + dormitoryId + ":" + machineTypeId + ":" + format
+                + ":" + startDate + ":" + endDate + ":" + holdBucket;
+        return resourceVersions.slotsETag(resource, startDate, endDate,
+                ResourceVersions.MACHINES, ResourceVersions.DORMITORIES);
+    }
+
+    /**
+     * То же, что {@link #getDormitoryAvailability}, но в компактном виде:
+     * сетка машинки и битовая карта свободных слотов без DTO на каждый слот
+     */
+    public SlotBitmapResponse getDormitoryAvailabilityBitmap(UUID dormitoryId, Integer machineTypeId,
+                                                             LocalDate startDate, LocalDate endDate) {
+        var machines = computeDormitoryAvailability(dormitoryId, machineTypeId, startDate, endDate)
+                .stream()
+                .map(machine -> SlotBitmapResponse.MachineBitmap.builder()
+                        .machineId(machine.machineId())
+                        .machineName(machine.machineName())
+                        .dormitoryName(machine.dormitoryName())
+                        .dormitoryAddress(machine.dormitoryAddress())
+                        .openTime(machine.grid().getOpenTime())
+                        .slotMinutes(machine.grid().getSlotMinutes())
+                        .slotsPerDay(machine.grid().getSlotsPerDay())
+                        .free(encodeBitmap(machine.grid(), machine.freeMasks()))
+                        .build())
+                .toList();
+
+        return SlotBitmapResponse.builder()
+                .startDate(startDate)
+                .days((int) ChronoUnit.DAYS.between(startDate, endDate) + 1)
+                .machines(machines)
+                .build();
+    }
+
+    private List<MachineAvailability> computeDormitoryAvailability(UUID dormitoryId, Integer machineTypeId,
+                                                                   LocalDate startDate, LocalDate endDate) {
+        if (endDate.isBefore(startDate) || ChronoUnit.DAYS.between(startDate, endDate) >= MAX_AVAILABILITY_DAYS) {
+            throw new ApplicationException("Период должен быть не длиннее " + MAX_AVAILABILITY_DAYS + " дней",
+                    HttpStatus.BAD_REQUEST);
+        }
+
+        List<MachineSlotViewRepository.DormitoryReservationRow> rows =
+                machineSlotViewRepository.findDormitoryReservations(dormitoryId, machineTypeId, startDate, endDate);
+        if (rows.isEmpty()) {
+            // пустое общежитие отличаем от несуществующего только когда машинок нет
+            dormitoryRepository.findDormitoryById(dormitoryId)
+                    .orElseThrow(() -> new ApplicationException("Dormitory not found", HttpStatus.NOT_FOUND));
+            return Collections.emptyList();
+        }
+
+        Map<UUID, List<MachineSlotViewRepository.DormitoryReservationRow>> rowsByMachine = rows.stream()
+                .collect(Collectors.groupingBy(MachineSlotViewRepository.DormitoryReservationRow::machineId,
+                        LinkedHashMap::new, Collectors.toList()));
+
+        List<LocalDate> allDates = generateDates(startDate, endDate);
+        Map<UUID, Map<LocalDate, Long>> heldByMachine = slotHoldService.findHeldSlots(rowsByMachine.keySet(), allDates);
+
+        return rowsByMachine.values()
+                .parallelStream()
+                .map(machineRows -> {
+                    var machine = machineRows.get(0);
+                    SlotGrid grid = slotGridRegistry.gridFor(machine.machineId());
+                    Map<LocalDate, Long> heldByDate = heldByMachine.getOrDefault(machine.machineId(), Collections.emptyMap());
+
+                    long[] freeMasks = new long[allDates.size()];
+                    for (int day = 0; day < freeMasks.length; day++) {
+                        freeMasks[day] = grid.fullMask() & ~heldByDate.getOrDefault(allDates.get(day), 0L);
+                    }
+                    for (var row : machineRows) {
+                        if (row.resDate() != null) {
+                            int day = (int) ChronoUnit.DAYS.between(startDate, row.resDate());
+                            freeMasks[day] &= ~grid.maskOf(row.startTime(), row.endTime());
+                        }
+                    }
+
+                    return new MachineAvailability(machine.machineId(), machine.machineName(),
+                            machine.dormitoryName(), machine.dormitoryAddress(), grid, freeMasks);
+                }).toList();
+    }
+
+    /**
+     * Упаковывает маски свободных слотов по дням в base64, формат описан в {@link SlotBitmapResponse}
+     */
+    private static String encodeBitmap(SlotGrid grid, long[] freeMasks) {
+        int bytesPerDay = (grid.getSlotsPerDay() + Byte.SIZE - 1) / Byte.SIZE;
+        byte[] bitmap = new byte[freeMasks.length * bytesPerDay];
+        for (int day = 0; day < freeMasks.length; day++) {
+            for (int i = 0; i < bytesPerDay; i++) {
+                bitmap[day * bytesPerDay + i] = (byte) (freeMasks[day] >>> (i * Byte.SIZE));
+            }
+        }
+        return Base64.getEncoder().encodeToString(bitmap);
+    }
+
     /**
      * генерирует нужные даты чтоб отдать тайм слоты на клиент
      *
@@ -168,25 +304,14 @@ public class MachineSlotService {
     }
 
     /**
-     * функция для генерации слотов, в базе их не храним так как дорого
-     *
-     * @param allDates
-     * @return
+     * Свободные слоты машинки по дням периода в виде масок сетки
      */
-    private List<TimeSlotResponse> generateTimeSlotsForPeriod(List<LocalDate> allDates) {
-        List<TimeSlotResponse> slots = new ArrayList<>();
-        for (LocalDate date : allDates) {
-            for (LocalTime time = LocalTime.of(8, 0); time.isBefore(LocalTime.of(17, 0)); time = time.plusHours(1)) {
-                slots.add(TimeSlotResponse.builder()
-                        .date(date)
-                        .dayOfWeek(date.getDayOfWeek().getValue())
-                        .startTime(time)
-                        .endTime(time.plusHours(1))
-                        .isAvailable(true)
-                        .build());
-            }
-        }
-        return slots;
+    private record MachineAvailability(
+            UUID machineId,
+            String machineName,
+            String dormitoryName,
+            String dormitoryAddress,
+            SlotGrid grid,
+            long[] freeMasks) {
     }
-
 }
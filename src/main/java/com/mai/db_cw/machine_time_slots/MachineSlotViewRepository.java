@@ -0,0 +1,175 @@
+package com.mai.db_cw.machine_time_slots;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Проекция машинки с общежитием и ее временными слотами одним запросом
+ * (вместо отдельных запросов слота и общежития на каждую строку)
+ */
+@Repository
+@RequiredArgsConstructor
+public class MachineSlotViewRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    private static final RowMapper<MachineSlotRow> machineSlotRowMapper = (rs, i) -> new MachineSlotRow(
+            rs.getObject("machine_id", UUID.class),
+            rs.getString("machine_name"),
+            rs.getString("dormitory_name"),
+            rs.getString("dormitory_address"),
+            rs.getObject("time_slot_id", UUID.class),
+            (Integer) rs.getObject("day_of_week"),
+            rs.getObject("start_time", LocalTime.class),
+            rs.getObject("end_time", LocalTime.class),
+            (Boolean) rs.getObject("is_available"));
+
+    private static final RowMapper<DormitoryReservationRow> dormitoryReservationRowMapper = (rs, i) -> new DormitoryReservationRow(
+            rs.getObject("machine_id", UUID.class),
+            rs.getString("machine_name"),
+            rs.getString("dormitory_name"),
+            rs.getString("dormitory_address"),
+            rs.getObject("res_date", LocalDate.class),
+            rs.getObject("start_time", LocalTime.class),
+            rs.getObject("end_time", LocalTime.class));
+
+    /**
+     * Все машинки с общежитием и слотами. Машинка без слотов дает одну строку с пустыми полями слота
+     *
+     * @return строки, упорядоченные по машинке, дню недели и времени начала
+     */
+    public List<MachineSlotRow> findAllMachinesWithSlots() {
+        String sql = """
+                SELECT
+                    m.id AS machine_id,
+                    m.name AS machine_name,
+                    d.name AS dormitory_name,
+                    d.address AS dormitory_address,
+                    ts.id AS time_slot_id,
+                    ts.day_of_week,
+                    ts.start_time,
+                    ts.end_time,
+                    mts.is_available
+                FROM
+                    machines m
+                JOIN
+                    dormitories d ON m.dormitory_id = d.id
+                LEFT JOIN
+                    machine_time_slots mts ON mts.machine_id = m.id
+                LEFT JOIN
+                    time_slots ts ON ts.id = mts.time_slot_id
+                ORDER BY
+                    m.name,
+                    m.id,
+                    ts.day_of_week,
+                    ts.start_time
+                """;
+
+        return jdbcTemplate.query(sql, machineSlotRowMapper);
+    }
+
+    /**
+     * Машинки общежития вместе с их бронями за период, одним запросом по диапазону res_date
+     *
+     * @param dormitoryId   общежитие
+     * @param machineTypeId тип машинки, null - все типы
+     * @param startDate     первый день периода
+     * @param endDate       последний день периода включительно
+     * @return строки, упорядоченные по машинке; машинка без броней дает одну строку с пустыми полями брони
+     */
+    public List<DormitoryReservationRow> findDormitoryReservations(UUID dormitoryId, Integer machineTypeId,
+                                                                   LocalDate startDate, LocalDate endDate) {
+        String sql = """
+                SELECT
+                    m.id AS machine_id,
+                    m.name AS machine_name,
+                    d.name AS dormitory_name,
+                    d.address AS dormitory_address,
+                    r.res_date,
+                    r.start_time,
+                    r.end_time
+                FROM
+                    machines m
+                JOIN
+                    dormitories d ON m.dormitory_id = d.id
+                LEFT JOIN
+                    reservations r ON r.machine_id = m.id
+                        AND r.res_date >= :startDate
+                        AND r.res_date <= :endDate
+                WHERE
+                    m.dormitory_id = :dormitoryId
+                """ + (machineTypeId != null ? "AND m.machine_type_id = :machineTypeId\n" : "") + """
+                ORDER BY
+                    m.name,
+                    m.id
+                """;
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("dormitoryId", dormitoryId);
+        params.put("machineTypeId", machineTypeId);
+        params.put("startDate", startDate);
+        params.put("endDate", endDate);
+
+        return jdbcTemplate.query(sql, params, dormitoryReservationRowMapper);
+    }
+
+    /**
+     * Машинки общежития, при необходимости только одного типа
+     *
+     * @param dormitoryId   общежитие
+     * @param machineTypeId тип машинки, null - все типы
+     * @return id и название машинок
+     */
+    public List<MachineRef> findDormitoryMachines(UUID dormitoryId, Integer machineTypeId) {
+        String sql = "SELECT id, name FROM machines WHERE dormitory_id = :dormitoryId"
+                + (machineTypeId != null ? " AND machine_type_id = :machineTypeId" : "");
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("dormitoryId", dormitoryId);
+        params.put("machineTypeId", machineTypeId);
+
+        return jdbcTemplate.query(sql, params, (rs, i) -> new MachineRef(
+                rs.getObject("id", UUID.class),
+                rs.getString("name")));
+    }
+
+    /**
+     * Строка проекции; поля слота null, если у машинки нет слотов
+     */
+    public record MachineSlotRow(
+            UUID machineId,
+            String machineName,
+            String dormitoryName,
+            String dormitoryAddress,
+            UUID timeSlotId,
+            Integer dayOfWeek,
+            LocalTime startTime,
+            LocalTime endTime,
+            Boolean isAvailable) {
+    }
+
+    /**
+     * Машинка общежития и одна ее бронь; поля брони null, если броней за период нет
+     */
+    public record DormitoryReservationRow(
+            UUID machineId,
+            String machineName,
+            String dormitoryName,
+            String dormitoryAddress,
+            LocalDate resDate,
+            LocalTime startTime,
+            LocalTime endTime) {
+    }
+
+    public record MachineRef(UUID machineId, String machineName) {
+    }
+}
@@ -0,0 +1,70 @@
+package com.mai.db_cw.machine_time_slots;
+
+import com.mai.db_cw.dormitory.event.DormitoryDeletedEvent;
+import com.mai.db_cw.machine_time_slots.dto.MachineTimeSlotResponse;
+import com.mai.db_cw.machines.event.MachineChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * <p>Закешированный снимок ответа "все машинки со слотами".</p>
+ * <p>Снимок сбрасывается при создании/удалении машинки или общежития,
+ * а также живет не дольше ttl (доступность слотов в machine_time_slots меняется без событий)</p>
+ */
+@Slf4j
+@Component
+public class MachineSlotsReadModel {
+
+    private final Duration ttl;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    public MachineSlotsReadModel(@Value("${machine-slots.read-model.ttl:PT1M}") Duration ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Отдает снимок или строит новый через loader, если снимка нет или он устарел
+     */
+    public MachineTimeSlotResponse get(Supplier<MachineTimeSlotResponse> loader) {
+        Snapshot current = snapshot.get();
+        long now = System.nanoTime();
+        if (current != null && now - current.loadedAt() < ttl.toNanos()) {
+            return current.response();
+        }
+
+        long loadGeneration = generation.get();
+        MachineTimeSlotResponse response = loader.get();
+        // если снимок сбросили пока строили новый, не сохраняем устаревшие данные
+        if (generation.get() == loadGeneration) {
+            snapshot.set(new Snapshot(response, now));
+        }
+        return response;
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+        snapshot.set(null);
+    }
+
+    @EventListener
+    public void onMachineChanged(MachineChangedEvent event) {
+        log.debug("Machine {} {}, machine slots read model invalidated", event.machineId(), event.type());
+        invalidate();
+    }
+
+    @EventListener
+    public void onDormitoryDeleted(DormitoryDeletedEvent event) {
+        invalidate();
+    }
+
+    private record Snapshot(MachineTimeSlotResponse response, long loadedAt) {
+    }
+}
@@ -0,0 +1,123 @@
+package com.mai.db_cw.machine_time_slots;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mai.db_cw.config.infrastructure.exceptions.ApplicationException;
+import com.mai.db_cw.dormitory.event.DormitoryDeletedEvent;
+import com.mai.db_cw.machine_time_slots.dto.FreeSlotResponse;
+import com.mai.db_cw.machines.event.MachineChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * <p>Поиск ближайших свободных окон на машинках общежития</p>
+ * <p>Отвечает из {@link SlotOccupancyIndex} без запросов броней в БД: для каждой машинки
+ * ищется первое окно нужной длины, дальше берутся самые ранние. Список машинок
+ * общежития кешируется. Удержания слотов не учитываются, их проверяет само бронирование</p>
+ * <p>Брони других узлов индекс получает через pub/sub и периодическую сверку
+ * (см. {@link SlotOccupancyIndexLoader}), поэтому
+ * окно может оказаться уже занятым - окончательно это проверяет бронирование</p>
+ */
+@Slf4j
+@Service
+public class NextFreeSlotService {
+
+    private static final int MAX_RESULTS = 50;
+    private static final int MAX_SEARCH_DAYS = 90;
+
+    private final SlotOccupancyIndex occupancyIndex;
+    private final SlotGridRegistry slotGridRegistry;
+    private final MachineSlotViewRepository machineSlotViewRepository;
+    private final Cache<MachinesKey, List<MachineSlotViewRepository.MachineRef>> machinesCache;
+
+    public NextFreeSlotService(
+            SlotOccupancyIndex occupancyIndex,
+            SlotGridRegistry slotGridRegistry,
+            MachineSlotViewRepository machineSlotViewRepository,
+            @Value("${machine-slots.next-free.machines-ttl:PT1M}") Duration machinesTtl) {
+        this.occupancyIndex = occupancyIndex;
+        this.slotGridRegistry = slotGridRegistry;
+        this.machineSlotViewRepository = machineSlotViewRepository;
+        this.machinesCache = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(machinesTtl)
+                .build();
+    }
+
+    /**
+     * Ближайшие свободные окна, не больше одного на машинку
+     *
+     * @param dormitoryId   общежитие
+     * @param machineTypeId тип машинки, null - все типы
+     * @param after         окно должно начинаться не раньше этого момента (и не в прошлом)
+     * @param minDuration   минимальная длина окна
+     * @param limit         сколько окон вернуть
+     * @param searchDays    на сколько дней вперед искать
+     * @return окна в порядке начала
+     */
+    public List<FreeSlotResponse> findNextFree(UUID dormitoryId, Integer machineTypeId, LocalDateTime after,
+                                               Duration minDuration, int limit, int searchDays) {
+        if (limit <= 0 || limit > MAX_RESULTS || searchDays <= 0 || searchDays > MAX_SEARCH_DAYS
+                || minDuration.isNegative() || minDuration.isZero()) {
+            throw new ApplicationException("Некорректные параметры поиска: limit до " + MAX_RESULTS
+                    + ", период до " + MAX_SEARCH_DAYS + " дней, длительность больше нуля", HttpStatus.BAD_REQUEST);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime from = after == null || after.isBefore(now) ? now : after;
+        if (!occupancyIndex.covers(from.toLocalDate())) {
+            throw new ApplicationException("Индекс занятости еще не загружен, повторите запрос позже",
+                    HttpStatus.SERVICE_UNAVAILABLE);
+        }
+
+        List<FreeSlotResponse> found = new ArrayList<>();
+        for (var machine : machinesOf(dormitoryId, machineTypeId)) {
+            SlotGrid grid = slotGridRegistry.gridFor(machine.machineId());
+            int slots = grid.slotsFor(minDuration);
+            occupancyIndex.findFirstFree(machine.machineId(), from.toLocalDate(),
+                            grid.firstSlotStartingFrom(from.toLocalTime()), slots,
+                            from.toLocalDate().plusDays(searchDays - 1))
+                    .ifPresent(window -> found.add(FreeSlotResponse.builder()
+                            .machineId(machine.machineId())
+                            .machineName(machine.machineName())
+                            .resDate(window.date())
+                            .startTime(grid.startOf(window.firstSlot()))
+                            .endTime(grid.endOf(window.firstSlot() + slots - 1))
+                            .build()));
+        }
+
+        return found.stream()
+                .sorted(Comparator.comparing(FreeSlotResponse::getResDate)
+                        .thenComparing(FreeSlotResponse::getStartTime))
+                .limit(limit)
+                .toList();
+    }
+
+    private List<MachineSlotViewRepository.MachineRef> machinesOf(UUID dormitoryId, Integer machineTypeId) {
+        return machinesCache.get(new MachinesKey(dormitoryId, machineTypeId),
+                key -> machineSlotViewRepository.findDormitoryMachines(key.dormitoryId(), key.machineTypeId()));
+    }
+
+    @EventListener
+    public void onMachineChanged(MachineChangedEvent event) {
+        machinesCache.invalidateAll();
+    }
+
+    @EventListener
+    public void onDormitoryDeleted(DormitoryDeletedEvent event) {
+        machinesCache.invalidateAll();
+    }
+
+    private record MachinesKey(UUID dormitoryId, Integer machineTypeId) {
+    }
+}
@@ -0,0 +1,193 @@
+package com.mai.db_cw.machine_time_slots;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mai.db_cw.dormitory.event.DormitoryDeletedEvent;
+import com.mai.db_cw.machines.event.MachineChangedEvent;
+import com.mai.db_cw.reservation.Reservation;
+import com.mai.db_cw.reservation.dao.ReservationRepository;
+import com.mai.db_cw.reservation.event.ReservationChangedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Кеш занятости слотов для страницы бронирования: ключ (машинка, неделя),
+ * значение - 7 битовых масок занятых ячеек сетки машинки ({@link SlotGrid}) по дням недели</p>
+ * <p>Промахи по нескольким неделям догружаются одним запросом за весь диапазон.
+ * Создание брони патчит маску одного дня, удаление пересчитывает один день,
+ * удаление машинки выкидывает только ее недели. Статусы броней на занятость не влияют.
+ * Брони других узлов кластера событий сюда не шлют, поэтому записи живут не дольше ttl</p>
+ * <p>У каждой машинки есть поколение, которое растет на каждое изменение ее броней.
+ * Если поколение сменилось пока недели грузились из БД, загруженные маски отдаются,
+ * но в кеше не остаются: событие могло прийти раньше, чем запись появилась в кеше</p>
+ */
+@Slf4j
+@Component
+public class SlotAvailabilityCache {
+
+    private static final int DAYS_IN_WEEK = 7;
+
+    private final ReservationRepository reservationRepository;
+    private final SlotGridRegistry slotGridRegistry;
+    private final Cache<WeekKey, long[]> cache;
+    private final Map<UUID, Long> generations = new ConcurrentHashMap<>();
+
+    public SlotAvailabilityCache(
+            ReservationRepository reservationRepository,
+            SlotGridRegistry slotGridRegistry,
+            MeterRegistry meterRegistry,
+            @Value("${machine-slots.availability-cache.max-size:20000}") long maxSize,
+            @Value("${machine-slots.availability-cache.ttl:PT5M}") Duration ttl) {
+        this.reservationRepository = reservationRepository;
+        this.slotGridRegistry = slotGridRegistry;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "slot-availability");
+    }
+
+    /**
+     * Маски занятости по дням периода
+     *
+     * @param machineId машинка
+     * @param from      первый день периода
+     * @param to        последний день периода включительно
+     * @return дата -> маска занятых ячеек сетки
+     */
+    public Map<LocalDate, Long> occupancy(UUID machineId, LocalDate from, LocalDate to) {
+        List<WeekKey> keys = new ArrayList<>();
+        for (LocalDate week = weekStart(from); !week.isAfter(to); week = week.plusWeeks(1)) {
+            keys.add(new WeekKey(machineId, week));
+        }
+
+        Map<WeekKey, long[]> weeks = new HashMap<>(cache.getAllPresent(keys));
+        List<WeekKey> missing = keys.stream().filter(key -> !weeks.containsKey(key)).toList();
+        if (!missing.isEmpty()) {
+            long loadGeneration = generation(machineId);
+            Map<WeekKey, long[]> loaded = loadWeeks(machineId, missing);
+            weeks.putAll(loaded);
+
+            loaded.forEach(cache.asMap()::putIfAbsent);
+            // поколение проверяем после записи: событие, пришедшее позже проверки,
+            // уже увидит запись в кеше и пропатчит ее
+            if (generation(machineId) != loadGeneration) {
+                cache.invalidateAll(loaded.keySet());
+            }
+        }
+
+        Map<LocalDate, Long> result = new HashMap<>();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            long[] masks = weeks.get(new WeekKey(machineId, weekStart(date)));
+            if (masks != null) {
+                result.put(date, masks[dayIndex(date)]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Один запрос за весь диапазон недель, которых нет в кеше (ключи одной машинки)
+     */
+    private Map<WeekKey, long[]> loadWeeks(UUID machineId, List<WeekKey> keys) {
+        SlotGrid grid = slotGridRegistry.gridFor(machineId);
+        LocalDate from = keys.stream().map(WeekKey::weekStart).min(LocalDate::compareTo).orElseThrow();
+        LocalDate to = keys.stream().map(WeekKey::weekStart).max(LocalDate::compareTo).orElseThrow().plusDays(DAYS_IN_WEEK - 1);
+
+        Map<WeekKey, long[]> loaded = new HashMap<>();
+        for (WeekKey key : keys) {
+            loaded.put(key, new long[DAYS_IN_WEEK]);
+        }
+
+        for (Reservation reservation : reservationRepository.findReservationsForMachineInPeriod(machineId, from, to)) {
+            long[] masks = loaded.get(new WeekKey(machineId, weekStart(reservation.getResDate())));
+            if (masks != null) {
+                masks[dayIndex(reservation.getResDate())] |= grid.maskOf(reservation.getStartTime(), reservation.getEndTime());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Срабатывает после коммита транзакции, в которой изменилась бронь
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onReservationChanged(ReservationChangedEvent event) {
+        // поколение сдвигаем до патча, см. occupancy
+        generations.merge(event.machineId(), 1L, Long::sum);
+
+        WeekKey key = new WeekKey(event.machineId(), weekStart(event.resDate()));
+        SlotGrid grid = slotGridRegistry.gridFor(event.machineId());
+        int day = dayIndex(event.resDate());
+        switch (event.type()) {
+            case CREATED -> {
+                long mask = grid.maskOf(event.startTime(), event.endTime());
+                cache.asMap().computeIfPresent(key, (k, masks) -> withDay(masks, day, masks[day] | mask));
+            }
+            case DELETED -> {
+                if (cache.getIfPresent(key) == null) {
+                    return;
+                }
+
+                long mask = 0;
+                for (Reservation reservation : reservationRepository.findReservationsForMachineInPeriod(
+                        event.machineId(), event.resDate(), event.resDate())) {
+                    mask |= grid.maskOf(reservation.getStartTime(), reservation.getEndTime());
+                }
+                long dayMask = mask;
+                cache.asMap().computeIfPresent(key, (k, masks) -> withDay(masks, day, dayMask));
+            }
+        }
+    }
+
+    @EventListener
+    public void onMachineChanged(MachineChangedEvent event) {
+        if (event.type() == MachineChangedEvent.Type.DELETED) {
+            cache.asMap().keySet().removeIf(key -> key.machineId().equals(event.machineId()));
+            generations.merge(event.machineId(), 1L, Long::sum);
+        }
+    }
+
+    @EventListener
+    public void onDormitoryDeleted(DormitoryDeletedEvent event) {
+        cache.invalidateAll();
+    }
+
+    private long generation(UUID machineId) {
+        return generations.getOrDefault(machineId, 0L);
+    }
+
+    /**
+     * маски в кеше не меняем на месте, читатели могут держать старый массив
+     */
+    private static long[] withDay(long[] masks, int day, long mask) {
+        long[] copy = masks.clone();
+        copy[day] = mask;
+        return copy;
+    }
+
+    private static LocalDate weekStart(LocalDate date) {
+        return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+
+    private static int dayIndex(LocalDate date) {
+        return (int) ChronoUnit.DAYS.between(weekStart(date), date);
+    }
+
+    private record WeekKey(UUID machineId, LocalDate weekStart) {
+    }
+}
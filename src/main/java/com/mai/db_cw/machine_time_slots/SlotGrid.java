@@ -0,0 +1,111 @@
+package com.mai.db_cw.machine_time_slots;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.LocalTime;
+
+/**
+ * Сетка слотов внутри одного дня (по умолчанию с 08:00 до 17:00, шаг 1 час).
+ * Слот кодируется своим индексом в дне, а занятость дня - битовой маской,
+ * где бит i соответствует слоту i. Сетка конкретной машинки задается шаблоном
+ * из slot_templates (см. {@link SlotGridRegistry})
+ */
+@Getter
+@EqualsAndHashCode
+public final class SlotGrid {
+
+    public static final SlotGrid DEFAULT = new SlotGrid(LocalTime.of(8, 0), LocalTime.of(17, 0), Duration.ofHours(1));
+
+    private final LocalTime openTime;
+    private final LocalTime closeTime;
+    private final Duration slotDuration;
+    private final int slotsPerDay;
+
+    private final int openMinute;
+    private final int slotMinutes;
+
+    public SlotGrid(LocalTime openTime, LocalTime closeTime, Duration slotDuration) {
+        this.openTime = openTime;
+        this.closeTime = closeTime;
+        this.slotDuration = slotDuration;
+        this.openMinute = minuteOfDay(openTime);
+        this.slotMinutes = (int) slotDuration.toMinutes();
+        this.slotsPerDay = (minuteOfDay(closeTime) - openMinute) / slotMinutes;
+
+        if (slotMinutes <= 0 || slotsPerDay <= 0 || slotsPerDay > Long.SIZE) {
+            throw new IllegalArgumentException("Некорректная сетка слотов: " + openTime + "-" + closeTime + " / " + slotDuration);
+        }
+    }
+
+    public LocalTime startOf(int slot) {
+        return openTime.plusMinutes((long) slot * slotMinutes);
+    }
+
+    public LocalTime endOf(int slot) {
+        return startOf(slot + 1);
+    }
+
+    /**
+     * Индекс первого слота, который начинается не раньше time;
+     * slotsPerDay, если таких слотов в дне нет
+     */
+    public int firstSlotStartingFrom(LocalTime time) {
+        int from = minuteOfDay(time) - openMinute;
+        if (from <= 0) {
+            return 0;
+        }
+
+        return Math.min((from + slotMinutes - 1) / slotMinutes, slotsPerDay);
+    }
+
+    /**
+     * Сколько слотов подряд нужно, чтобы покрыть duration
+     */
+    public int slotsFor(Duration duration) {
+        return (int) ((duration.toMinutes() + slotMinutes - 1) / slotMinutes);
+    }
+
+    /**
+     * маска, в которой выставлены все слоты дня
+     */
+    public long fullMask() {
+        return slotsPerDay == Long.SIZE ? -1L : (1L << slotsPerDay) - 1;
+    }
+
+    /**
+     * true если интервал целиком лежит на сетке, т.е. начинается и заканчивается на границах слотов
+     */
+    public boolean isAligned(LocalTime start, LocalTime end) {
+        int from = minuteOfDay(start) - openMinute;
+        int to = minuteOfDay(end) - openMinute;
+
+        return from >= 0
+                && from < to
+                && to <= slotsPerDay * slotMinutes
+                && from % slotMinutes == 0
+                && to % slotMinutes == 0;
+    }
+
+    /**
+     * Маска всех слотов, которые пересекаются с интервалом [start, end).
+     * Для выровненного по сетке интервала маска точная, для невыровненного - покрывающая
+     */
+    public long maskOf(LocalTime start, LocalTime end) {
+        int from = Math.max(minuteOfDay(start) - openMinute, 0);
+        int to = Math.min(minuteOfDay(end) - openMinute, slotsPerDay * slotMinutes);
+        if (from >= to) {
+            return 0L;
+        }
+
+        int first = from / slotMinutes;
+        int last = (to + slotMinutes - 1) / slotMinutes; // не включительно
+        long upTo = last == Long.SIZE ? -1L : (1L << last) - 1;
+        return upTo & ~((1L << first) - 1);
+    }
+
+    private static int minuteOfDay(LocalTime time) {
+        return time.toSecondOfDay() / 60;
+    }
+}
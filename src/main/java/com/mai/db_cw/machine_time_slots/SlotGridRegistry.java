@@ -0,0 +1,89 @@
+package com.mai.db_cw.machine_time_slots;
+
+import com.mai.db_cw.dormitory.event.DormitoryDeletedEvent;
+import com.mai.db_cw.machines.event.MachineChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Сетка слотов каждой машинки по шаблонам из slot_templates (тип машинки + общежитие)</p>
+ * <p>Сетка читается из БД один раз на машинку, одинаковые сетки переиспользуются.
+ * Если шаблона нет, используется {@link SlotGrid#DEFAULT}. Маски занятости в индексах
+ * и кешах построены по сетке машинки, поэтому правка шаблона применяется после рестарта</p>
+ * <p>Промах (машинки или шаблона нет, шаблон некорректный) запоминается на miss-ttl,
+ * чтобы запросы по несуществующим машинкам не ходили в БД каждый раз</p>
+ */
+@Slf4j
+@Component
+public class SlotGridRegistry {
+
+    private final SlotTemplateRepository slotTemplateRepository;
+    private final long missTtlNanos;
+
+    private final Map<UUID, SlotGrid> gridsByMachine = new ConcurrentHashMap<>();
+    private final Map<SlotGrid, SlotGrid> interned = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> missExpiresAt = new ConcurrentHashMap<>();
+
+    public SlotGridRegistry(
+            SlotTemplateRepository slotTemplateRepository,
+            @Value("${machine-slots.grid.miss-ttl:PT1M}") Duration missTtl) {
+        this.slotTemplateRepository = slotTemplateRepository;
+        this.missTtlNanos = missTtl.toNanos();
+    }
+
+    /**
+     * Сетка слотов машинки
+     */
+    public SlotGrid gridFor(UUID machineId) {
+        SlotGrid grid = gridsByMachine.get(machineId);
+        if (grid != null) {
+            return grid;
+        }
+
+        Long expiresAt = missExpiresAt.get(machineId);
+        if (expiresAt != null) {
+            if (System.nanoTime() - expiresAt < 0) {
+                return SlotGrid.DEFAULT;
+            }
+            missExpiresAt.remove(machineId, expiresAt);
+        }
+
+        // промах кешируем ненадолго: машинку могли создать на другом узле
+        Optional<SlotGrid> found = findGrid(machineId);
+        if (found.isEmpty()) {
+            missExpiresAt.put(machineId, System.nanoTime() + missTtlNanos);
+            return SlotGrid.DEFAULT;
+        }
+
+        return gridsByMachine.computeIfAbsent(machineId, id -> interned.computeIfAbsent(found.get(), g -> g));
+    }
+
+    private Optional<SlotGrid> findGrid(UUID machineId) {
+        try {
+            return slotTemplateRepository.findGridForMachine(machineId);
+        } catch (IllegalArgumentException e) {
+            log.warn("Некорректный шаблон слотов машинки {}, используется сетка по умолчанию: {}", machineId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    @EventListener
+    public void onMachineChanged(MachineChangedEvent event) {
+        gridsByMachine.remove(event.machineId());
+        missExpiresAt.remove(event.machineId());
+    }
+
+    @EventListener
+    public void onDormitoryDeleted(DormitoryDeletedEvent event) {
+        gridsByMachine.clear();
+        missExpiresAt.clear();
+    }
+}
@@ -0,0 +1,54 @@
+package com.mai.db_cw.machine_time_slots;
+
+import com.mai.db_cw.time_slot.dto.TimeSlotResponse;
+
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * <p>Слоты периода в компактном виде: слот i - это (смещение дня i / slotsPerDay,
+ * индекс слота в дне i % slotsPerDay), доступность - битовая маска свободных слотов дня</p>
+ * <p>{@link TimeSlotResponse} создаются только при обращении к элементу,
+ * т.е. при сериализации ответа, а не заранее на весь период</p>
+ */
+public final class SlotGridView extends AbstractList<TimeSlotResponse> implements RandomAccess {
+
+    private final SlotGrid grid;
+    private final LocalDate startDate;
+    private final long[] freeMasks;
+
+    /**
+     * @param grid      сетка машинки
+     * @param startDate первый день периода
+     * @param freeMasks маски свободных слотов по дням, начиная со startDate
+     */
+    public SlotGridView(SlotGrid grid, LocalDate startDate, long[] freeMasks) {
+        this.grid = grid;
+        this.startDate = startDate;
+        this.freeMasks = freeMasks;
+    }
+
+    @Override
+    public TimeSlotResponse get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        int dayOffset = index / grid.getSlotsPerDay();
+        int slot = index % grid.getSlotsPerDay();
+        LocalDate date = startDate.plusDays(dayOffset);
+        return TimeSlotResponse.builder()
+                .date(date)
+                .dayOfWeek(date.getDayOfWeek().getValue())
+                .startTime(grid.startOf(slot))
+                .endTime(grid.endOf(slot))
+                .isAvailable((freeMasks[dayOffset] & (1L << slot)) != 0)
+                .build();
+    }
+
+    @Override
+    public int size() {
+        return freeMasks.length * grid.getSlotsPerDay();
+    }
+}
@@ -0,0 +1,235 @@
+package com.mai.db_cw.machine_time_slots;
+
+import com.mai.db_cw.reservation.Reservation;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * <p>In-memory индекс занятости слотов: для каждой машинки хранится
+ * отсортированная по дате карта битовых масок занятых слотов дня (см. {@link SlotGrid})</p>
+ * <p>Индекс нужен, чтобы отклонять заведомо конфликтующие бронирования без запроса в БД.
+ * Окончательное решение остается за Postgres (уникальный ключ на reservations)</p>
+ * <p>Индекс покрывает дни начиная с {@code loadedFrom}; пока он не прогрет,
+ * {@link #covers(LocalDate)} возвращает false и проверка идет через БД</p>
+ * <p>Индекс свой на каждом узле, изменения с других узлов приходят через
+ * {@link SlotOccupancyIndexLoader} (Redis pub/sub и периодическая сверка ближайших дней)</p>
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SlotOccupancyIndex {
+
+    private final SlotGridRegistry slotGridRegistry;
+
+    /**
+     * machineId -> (resDate -> маска занятых слотов). Отсутствие дня значит что он свободен
+     */
+    private final Map<UUID, ConcurrentNavigableMap<LocalDate, Long>> occupancy = new ConcurrentHashMap<>();
+
+    private volatile LocalDate loadedFrom;
+
+    /**
+     * true если индекс прогрет и содержит актуальные данные на эту дату
+     */
+    public boolean covers(LocalDate date) {
+        LocalDate from = loadedFrom;
+        return from != null && !date.isBefore(from);
+    }
+
+    /**
+     * true если индекс может сам ответить на вопрос о доступности интервала
+     */
+    public boolean canAnswer(UUID machineId, LocalDate date, LocalTime start, LocalTime end) {
+        return covers(date) && slotGridRegistry.gridFor(machineId).isAligned(start, end);
+    }
+
+    public boolean isFree(UUID machineId, LocalDate date, LocalTime start, LocalTime end) {
+        return (occupancyOf(machineId, date) & slotGridRegistry.gridFor(machineId).maskOf(start, end)) == 0;
+    }
+
+    public long occupancyOf(UUID machineId, LocalDate date) {
+        var days = occupancy.get(machineId);
+        if (days == null) {
+            return 0L;
+        }
+
+        return days.getOrDefault(date, 0L);
+    }
+
+    public void occupy(UUID machineId, LocalDate date, LocalTime start, LocalTime end) {
+        long mask = slotGridRegistry.gridFor(machineId).maskOf(start, end);
+        if (mask == 0L) {
+            return;
+        }
+
+        daysOf(machineId).merge(date, mask, (a, b) -> a | b);
+    }
+
+    /**
+     * Полностью пересобирает маску дня по списку бронирований из БД.
+     * Для удаления не подходит: сотрет биты принятых, но еще не записанных броней,
+     * для него есть {@link #release}
+     */
+    public void replaceDay(UUID machineId, LocalDate date, Collection<Reservation> reservations) {
+        long mask = maskOf(slotGridRegistry.gridFor(machineId), reservations);
+        if (mask == 0L) {
+            daysOf(machineId).remove(date);
+            return;
+        }
+
+        daysOf(machineId).put(date, mask);
+    }
+
+    /**
+     * Пересобирает маски дней [from, to] всех машинок по списку бронирований (сверка с БД):
+     * дни без бронирований в списке становятся свободными
+     */
+    public void replacePeriod(LocalDate from, LocalDate to, Collection<Reservation> reservations) {
+        Map<UUID, Map<LocalDate, Long>> masks = new HashMap<>();
+        for (Reservation reservation : reservations) {
+            if (reservation.getResDate().isBefore(from) || reservation.getResDate().isAfter(to)) {
+                continue;
+            }
+            long mask = slotGridRegistry.gridFor(reservation.getMachineId())
+                    .maskOf(reservation.getStartTime(), reservation.getEndTime());
+            masks.computeIfAbsent(reservation.getMachineId(), id -> new HashMap<>())
+                    .merge(reservation.getResDate(), mask, (a, b) -> a | b);
+        }
+
+        occupancy.forEach((machineId, days) -> {
+            Map<LocalDate, Long> fresh = masks.getOrDefault(machineId, Collections.emptyMap());
+            days.subMap(from, true, to, true).keySet().removeIf(date -> !fresh.containsKey(date));
+        });
+        masks.forEach((machineId, days) -> daysOf(machineId).putAll(days));
+    }
+
+    /**
+     * Снимает биты интервала, которые не заняты остальными бронями дня.
+     * Используется, когда бронь, заранее занятая в индексе, не записалась: биты других броней,
+     * в том числе принятых, но еще не записанных, остаются на месте
+     *
+     * @param others остальные брони этой машинки за этот день (из БД и ожидающие записи)
+     */
+    public void release(UUID machineId, LocalDate date, LocalTime start, LocalTime end, Collection<Reservation> others) {
+        SlotGrid grid = slotGridRegistry.gridFor(machineId);
+        long clear = grid.maskOf(start, end) & ~maskOf(grid, others);
+        if (clear == 0L) {
+            return;
+        }
+
+        var days = occupancy.get(machineId);
+        if (days != null) {
+            days.computeIfPresent(date, (d, mask) -> (mask & ~clear) == 0L ? null : mask & ~clear);
+        }
+    }
+
+    /**
+     * Прогрев индекса бронированиями начиная с даты from
+     */
+    public void load(LocalDate from, Collection<Reservation> reservations) {
+        reservations.stream()
+                .filter(reservation -> !reservation.getResDate().isBefore(from))
+                .forEach(reservation -> occupy(
+                        reservation.getMachineId(),
+                        reservation.getResDate(),
+                        reservation.getStartTime(),
+                        reservation.getEndTime()));
+        loadedFrom = from;
+        log.info("Slot occupancy index loaded from {}: {} reservations, {} machines", from, reservations.size(), occupancy.size());
+    }
+
+    /**
+     * Первое окно из slots свободных слотов подряд: в день fromDate не раньше слота fromSlot,
+     * дальше по дням до untilDate включительно. Занятые дни берутся из отсортированной карты,
+     * дни без записи свободны целиком, поэтому поиск не зависит от длины периода
+     *
+     * @param machineId машинка
+     * @param fromDate  первый день поиска, должен покрываться индексом
+     * @param fromSlot  первый допустимый слот дня fromDate
+     * @param slots     длина окна в слотах
+     * @param untilDate последний день поиска
+     * @return день и первый слот окна или empty, если окна нет
+     */
+    public Optional<FreeWindow> findFirstFree(UUID machineId, LocalDate fromDate, int fromSlot, int slots, LocalDate untilDate) {
+        SlotGrid grid = slotGridRegistry.gridFor(machineId);
+        if (slots <= 0 || slots > grid.getSlotsPerDay()) {
+            return Optional.empty();
+        }
+
+        var days = occupancy.get(machineId);
+        Iterator<Map.Entry<LocalDate, Long>> busyDays = days == null
+                ? Collections.emptyIterator()
+                : days.tailMap(fromDate, true).entrySet().iterator();
+        Map.Entry<LocalDate, Long> nextBusy = busyDays.hasNext() ? busyDays.next() : null;
+
+        int minSlot = fromSlot;
+        for (LocalDate date = fromDate; !date.isAfter(untilDate); date = date.plusDays(1)) {
+            long occupied = 0L;
+            if (nextBusy != null && nextBusy.getKey().equals(date)) {
+                occupied = nextBusy.getValue();
+                nextBusy = busyDays.hasNext() ? busyDays.next() : null;
+            }
+
+            if (minSlot < grid.getSlotsPerDay()) {
+                long free = grid.fullMask() & ~occupied & ~((1L << minSlot) - 1);
+                int slot = firstRun(free, slots);
+                if (slot >= 0) {
+                    return Optional.of(new FreeWindow(date, slot));
+                }
+            }
+            minSlot = 0;
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * индекс первого бита, с которого в маске идут length единиц подряд, или -1
+     */
+    private static int firstRun(long mask, int length) {
+        long runs = mask;
+        for (int i = 1; i < length && runs != 0; i++) {
+            runs &= mask >>> i;
+        }
+        return runs == 0 ? -1 : Long.numberOfTrailingZeros(runs);
+    }
+
+    public void evictMachine(UUID machineId) {
+        occupancy.remove(machineId);
+    }
+
+    /**
+     * Удаляет прошедшие дни, индекс после этого покрывает даты начиная с date
+     */
+    public void evictBefore(LocalDate date) {
+        occupancy.values().forEach(days -> days.headMap(date).clear());
+        if (loadedFrom != null && loadedFrom.isBefore(date)) {
+            loadedFrom = date;
+        }
+    }
+
+    private static long maskOf(SlotGrid grid, Collection<Reservation> reservations) {
+        long mask = 0L;
+        for (Reservation reservation : reservations) {
+            mask |= grid.maskOf(reservation.getStartTime(), reservation.getEndTime());
+        }
+        return mask;
+    }
+
+    private ConcurrentNavigableMap<LocalDate, Long> daysOf(UUID machineId) {
+        return occupancy.computeIfAbsent(machineId, id -> new ConcurrentSkipListMap<>());
+    }
+
+    /**
+     * Свободное окно: день и индекс первого слота в сетке машинки
+     */
+    public record FreeWindow(LocalDate date, int firstSlot) {
+    }
+}
@@ -0,0 +1,156 @@
+package com.mai.db_cw.machine_time_slots;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mai.db_cw.reservation.Reservation;
+import com.mai.db_cw.reservation.ReservationBatchWriter;
+import com.mai.db_cw.reservation.dao.ReservationRepository;
+import com.mai.db_cw.reservation.event.ReservationChangedEvent;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * <p>Прогревает {@link SlotOccupancyIndex} из Postgres при старте
+ * и поддерживает его в актуальном состоянии по событиям бронирований.
+ * При удалении снимаются только биты удаленной брони, которые не заняты другими бронями
+ * дня из БД и принятыми, но еще не записанными в {@link ReservationBatchWriter}</p>
+ * <p>Индекс свой на каждом узле, поэтому изменения броней рассылаются остальным узлам
+ * через Redis pub/sub и применяются к их индексам так же, как локальные. Pub/sub не
+ * гарантирует доставку, поэтому ближайшие reconcile-days дней периодически сверяются с БД.
+ * Пока сверки не было, бронь по пропущенному изменению отклонит уникальный ключ в БД (409)</p>
+ */
+@Slf4j
+@Component
+public class SlotOccupancyIndexLoader {
+
+    private static final String CHANNEL = "reservation-changed";
+
+    private final SlotOccupancyIndex occupancyIndex;
+    private final ReservationRepository reservationRepository;
+    private final ReservationBatchWriter reservationBatchWriter;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ObjectMapper objectMapper;
+    private final int reconcileDays;
+
+    /**
+     * чтобы не применять свои же сообщения второй раз
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    public SlotOccupancyIndexLoader(
+            SlotOccupancyIndex occupancyIndex,
+            ReservationRepository reservationRepository,
+            ReservationBatchWriter reservationBatchWriter,
+            StringRedisTemplate redisTemplate,
+            @Qualifier("reservationEventsListenerContainer") RedisMessageListenerContainer listenerContainer,
+            ObjectMapper objectMapper,
+            @Value("${reservations.occupancy.reconcile-days:14}") int reconcileDays) {
+        this.occupancyIndex = occupancyIndex;
+        this.reservationRepository = reservationRepository;
+        this.reservationBatchWriter = reservationBatchWriter;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.objectMapper = objectMapper;
+        this.reconcileDays = reconcileDays;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this::onRemoteMessage, new ChannelTopic(CHANNEL));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        LocalDate today = LocalDate.now();
+        occupancyIndex.load(today, reservationRepository.findAllFromDate(today));
+    }
+
+    /**
+     * Срабатывает после коммита транзакции, в которой изменилась бронь
+     * (или сразу, если транзакции не было)
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onReservationChanged(ReservationChangedEvent event) {
+        apply(event);
+        broadcast(event);
+    }
+
+    private void apply(ReservationChangedEvent event) {
+        switch (event.type()) {
+            case CREATED -> occupancyIndex.occupy(event.machineId(), event.resDate(), event.startTime(), event.endTime());
+            case DELETED -> {
+                List<Reservation> others = new ArrayList<>(reservationRepository.findReservationsForMachineInPeriod(
+                        event.machineId(), event.resDate(), event.resDate()));
+                others.addAll(reservationBatchWriter.pendingFor(event.machineId(), event.resDate()));
+                occupancyIndex.release(event.machineId(), event.resDate(), event.startTime(), event.endTime(), others);
+            }
+        }
+    }
+
+    private void broadcast(ReservationChangedEvent event) {
+        try {
+            redisTemplate.convertAndSend(CHANNEL, objectMapper.writeValueAsString(new RemoteChange(nodeId, event)));
+        } catch (JsonProcessingException | DataAccessException e) {
+            log.warn("Failed to broadcast reservation change {}: {}", event.reservationId(), e.getMessage());
+        }
+    }
+
+    private void onRemoteMessage(Message message, byte[] pattern) {
+        try {
+            RemoteChange change = objectMapper.readValue(message.getBody(), RemoteChange.class);
+            if (!nodeId.equals(change.nodeId())) {
+                apply(change.event());
+            }
+        } catch (Exception e) {
+            log.warn("Failed to apply reservation change from another node: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Сверка ближайших дней с БД: догоняет изменения других узлов, сообщения о которых потерялись
+     */
+    @Scheduled(fixedDelayString = "${reservations.occupancy.reconcile-interval:PT10M}",
+            initialDelayString = "${reservations.occupancy.reconcile-interval:PT10M}")
+    public void reconcileUpcomingDays() {
+        LocalDate from = LocalDate.now();
+        if (!occupancyIndex.covers(from)) {
+            return;
+        }
+
+        LocalDate to = from.plusDays(reconcileDays - 1L);
+        List<Reservation> reservations = new ArrayList<>(reservationRepository.findAllInPeriod(from, to));
+        reservations.addAll(reservationBatchWriter.pendingInPeriod(from, to));
+        occupancyIndex.replacePeriod(from, to, reservations);
+        log.debug("Slot occupancy index reconciled for {}..{}: {} reservations", from, to, reservations.size());
+    }
+
+    /**
+     * раз в сутки выкидываем прошедшие дни из индекса
+     */
+    @Scheduled(cron = "0 5 0 * * *")
+    public void evictPastDays() {
+        log.debug("Evicting past days from slot occupancy index");
+        occupancyIndex.evictBefore(LocalDate.now());
+    }
+
+    private record RemoteChange(String nodeId, ReservationChangedEvent event) {
+    }
+}
@@ -0,0 +1,50 @@
+package com.mai.db_cw.machine_time_slots;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Шаблоны сетки слотов (таблица slot_templates)
+ */
+@Repository
+@RequiredArgsConstructor
+public class SlotTemplateRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    private static final RowMapper<SlotGrid> slotGridRowMapper = (rs, i) -> new SlotGrid(
+            rs.getObject("open_time", LocalTime.class),
+            rs.getObject("close_time", LocalTime.class),
+            Duration.ofMinutes(rs.getInt("slot_minutes")));
+
+    /**
+     * Сетка машинки: шаблон ее общежития, если есть, иначе общий шаблон ее типа
+     *
+     * @param machineId машинка
+     * @return сетка или empty, если машинки нет или для ее типа нет шаблона
+     */
+    public Optional<SlotGrid> findGridForMachine(UUID machineId) {
+        String sql = """
+                SELECT t.open_time, t.close_time, t.slot_minutes
+                FROM machines m
+                JOIN slot_templates t
+                    ON t.machine_type_id = m.machine_type_id
+                    AND (t.dormitory_id = m.dormitory_id OR t.dormitory_id IS NULL)
+                WHERE m.id = :machineId
+                ORDER BY t.dormitory_id NULLS LAST
+                LIMIT 1
+                """;
+
+        return jdbcTemplate.query(sql, Map.of("machineId", machineId), slotGridRowMapper)
+                .stream()
+                .findFirst();
+    }
+}
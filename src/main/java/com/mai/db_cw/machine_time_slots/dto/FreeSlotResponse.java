@@ -0,0 +1,26 @@
+package com.mai.db_cw.machine_time_slots.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.UUID;
+
+/**
+ * Ближайшее свободное окно на машинке
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FreeSlotResponse {
+
+    private UUID machineId;
+    private String machineName;
+    private LocalDate resDate;
+    private LocalTime startTime;
+    private LocalTime endTime;
+}
@@ -0,0 +1,46 @@
+package com.mai.db_cw.machine_time_slots.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * <p>Компактная доступность слотов: сетка машинки один раз и битовая карта свободных слотов</p>
+ * <p>{@code free} - base64 от days * bytesPerDay байт, bytesPerDay = ceil(slotsPerDay / 8).
+ * День d занимает байты [d * bytesPerDay, (d + 1) * bytesPerDay), слот i дня - бит (i % 8)
+ * байта i / 8 этого дня; бит 1 - слот свободен. Слот i начинается в openTime + i * slotMinutes</p>
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SlotBitmapResponse {
+
+    public static final String MEDIA_TYPE = "application/vnd.slots-bitmap+json";
+
+    private LocalDate startDate;
+    private int days;
+    private List<MachineBitmap> machines;
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class MachineBitmap {
+
+        private UUID machineId;
+        private String machineName;
+        private String dormitoryName;
+        private String dormitoryAddress;
+        private LocalTime openTime;
+        private int slotMinutes;
+        private int slotsPerDay;
+        private String free;
+    }
+}
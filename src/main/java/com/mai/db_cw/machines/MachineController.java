@@ -1,6 +1,9 @@
 package com.mai.db_cw.machines;
 
+import com.mai.db_cw.config.infrastructure.operation_storage.IdempotentOperationRegistry;
+import com.mai.db_cw.config.infrastructure.operation_storage.OperationAdmissionControl;
 import com.mai.db_cw.config.infrastructure.operation_storage.OperationStorage;
+import com.mai.db_cw.config.infrastructure.versioning.ResourceVersions;
 import com.mai.db_cw.machines.dto.MachineRequest;
 import com.mai.db_cw.machines.dto.MachineResponse;
 import lombok.RequiredArgsConstructor;
@@ -9,7 +12,9 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import java.security.Principal;
 import java.util.List;
 import java.util.UUID;
 
@@ -22,6 +27,9 @@ import static com.mai.db_cw.config.infrastructure.utility.OperationUtility.respo
 public class MachineController {
     private final MachineService machineService;
     private final OperationStorage operationStorage;
+    private final IdempotentOperationRegistry idempotentOperationRegistry;
+    private final OperationAdmissionControl admissionControl;
+    private final ResourceVersions resourceVersions;
 
     /**
      * получение всех машинок
@@ -29,23 +37,35 @@ public class MachineController {
      * @return
      */
     @GetMapping("/get-all")
-    public ResponseEntity<List<MachineResponse>> getAllMachines() {
+    public ResponseEntity<List<MachineResponse>> getAllMachines(WebRequest webRequest) {
+        // в ответе есть название общежития, поэтому версия зависит и от него
+        String etag = resourceVersions.tablesETag("machines", ResourceVersions.MACHINES, ResourceVersions.DORMITORIES);
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
+
         return ResponseEntity
                 .ok(machineService.findAllMachines());
     }
 
     /**
      * асинхронный метод добавления новой машинки
-     * доступен ток админу
+     * доступен ток админу, повтор с тем же Idempotency-Key возвращает ту же операцию
      *
      * @param machineRequest
      * @return
      */
     @PreAuthorize("hasRole('ADMIN')")
     @PostMapping("/add")
-    public ResponseEntity<UUID> addMachine(@RequestBody MachineRequest machineRequest) {
-        UUID randomId = operationStorage.addOperationReturningUUID();
-        machineService.runAsyncCreateMachine(randomId, machineRequest);
+    public ResponseEntity<UUID> addMachine(
+            @RequestBody MachineRequest machineRequest,
+            @RequestHeader(value = IdempotentOperationRegistry.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            Principal principal) {
+        var registration = idempotentOperationRegistry.register("machine:" + principal.getName(), idempotencyKey);
+        UUID randomId = registration.operationId();
+        if (!registration.duplicate()) {
+            machineService.runAsyncCreateMachine(randomId, machineRequest);
+        }
 
         return ResponseEntity
                 .status(HttpStatus.ACCEPTED)
@@ -63,8 +83,13 @@ public class MachineController {
     @PreAuthorize("hasRole('ADMIN')")
     @DeleteMapping("/del/{machineId}")
     public ResponseEntity<UUID> deleteMachine(@PathVariable UUID machineId) {
-        operationStorage.addOperation(machineId);
-        machineService.deleteAsyncById(machineId);
-        return ResponseEntity.status(HttpStatus.ACCEPTED).body(machineId);
+        admissionControl.admit("machine-delete");
+        // у каждого удаления своя операция: повторное удаление не возвращает завершенную операцию в ACCEPTED
+        UUID operationId = operationStorage.addOperationReturningUUID();
+        machineService.deleteAsyncById(machineId, operationId);
+        return ResponseEntity
+                .status(HttpStatus.ACCEPTED)
+                .header("Location", "/api/machines/status/" + operationId)
+                .body(operationId);
     }
 }
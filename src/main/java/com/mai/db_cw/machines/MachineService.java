@@ -2,11 +2,14 @@ package com.mai.db_cw.machines;
 
 import com.mai.db_cw.config.infrastructure.exceptions.ApplicationException;
 import com.mai.db_cw.config.infrastructure.operation_storage.OperationStorage;
+import com.mai.db_cw.config.infrastructure.versioning.ResourceVersions;
 import com.mai.db_cw.machines.dao.MachineRepository;
 import com.mai.db_cw.machines.dto.MachineRequest;
 import com.mai.db_cw.machines.dto.MachineResponse;
+import com.mai.db_cw.machines.event.MachineChangedEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.scheduling.annotation.Async;
@@ -23,9 +26,12 @@ public class MachineService {
 
     private final MachineRepository machineDao;
     private final OperationStorage operationStorage;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ResourceVersions resourceVersions;
 
     public void saveMachine(Machine machine) {
         machineDao.saveMachine(machine);
+        resourceVersions.bumpTable(ResourceVersions.MACHINES);
     }
 
     public List<MachineResponse> findAllMachines() {
@@ -63,6 +69,8 @@ public class MachineService {
 
             log.info("Async operation status: request sent to psql: id - {}", randomId);
             machineDao.saveMachine(machine);
+            resourceVersions.bumpTable(ResourceVersions.MACHINES);
+            eventPublisher.publishEvent(MachineChangedEvent.created(randomId));
             operationStorage.successfully(randomId);
         } catch (ApplicationException e) {
             operationStorage.failOperation(randomId, e.getMessage(), e.getHttpStatus());
@@ -74,17 +82,19 @@ public class MachineService {
     }
 
     @Async
-    public void deleteAsyncById(UUID machineId) {
+    public void deleteAsyncById(UUID machineId, UUID operationId) {
         try {
             log.info("delete async operation status: id - {}", machineId);
             machineDao.deleteMachineById(machineId);
-            operationStorage.successfully(machineId);
+            resourceVersions.bumpTable(ResourceVersions.MACHINES);
+            eventPublisher.publishEvent(MachineChangedEvent.deleted(machineId));
+            operationStorage.successfully(operationId);
         } catch (ApplicationException e) {
-            operationStorage.failOperation(machineId, e.getMessage(), e.getHttpStatus());
+            operationStorage.failOperation(operationId, e.getMessage(), e.getHttpStatus());
         } catch (DataIntegrityViolationException e) {
-            operationStorage.failOperation(machineId, e.getMessage(), HttpStatus.CONFLICT);
+            operationStorage.failOperation(operationId, e.getMessage(), HttpStatus.CONFLICT);
         } catch (RuntimeException e) {
-            operationStorage.failOperation(machineId, e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            operationStorage.failOperation(operationId, e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 }
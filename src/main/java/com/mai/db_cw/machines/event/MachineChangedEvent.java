@@ -0,0 +1,23 @@
+package com.mai.db_cw.machines.event;
+
+import java.util.UUID;
+
+/**
+ * Событие о создании или удалении машинки, публикуется после записи в БД.
+ * По нему сбрасываются кеши и read-модели, построенные по списку машинок
+ */
+public record MachineChangedEvent(Type type, UUID machineId) {
+
+    public enum Type {
+        CREATED,
+        DELETED
+    }
+
+    public static MachineChangedEvent created(UUID machineId) {
+        return new MachineChangedEvent(Type.CREATED, machineId);
+    }
+
+    public static MachineChangedEvent deleted(UUID machineId) {
+        return new MachineChangedEvent(Type.DELETED, machineId);
+    }
+}
@@ -0,0 +1,100 @@
+package com.mai.db_cw.reservation;
+
+import com.mai.db_cw.config.infrastructure.operation_storage.OperationAdmissionControl;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Секвенсор команд бронирования: каждая машинка закреплена за одной из
+ * однопоточных "полос" (lane), поэтому команды для одной машинки выполняются
+ * строго по очереди, а для разных машинок - параллельно</p>
+ * <p>Так конкурирующие запросы на один слот не гоняются друг с другом в разных
+ * транзакциях и не упираются в уникальный ключ, а второй запрос просто видит
+ * слот уже занятым</p>
+ */
+@Slf4j
+@Component
+public class BookingSequencer implements DisposableBean {
+
+    private static final String QUEUE_NAME = "booking-sequencer";
+
+    private final ThreadPoolExecutor[] lanes;
+    private final OperationAdmissionControl admissionControl;
+
+    public BookingSequencer(
+            @Value("${booking.sequencer.lanes:8}") int laneCount,
+            MeterRegistry meterRegistry,
+            OperationAdmissionControl admissionControl) {
+        if (laneCount <= 0) {
+            throw new IllegalArgumentException("booking.sequencer.lanes must be positive");
+        }
+
+        this.admissionControl = admissionControl;
+        lanes = new ThreadPoolExecutor[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            ThreadPoolExecutor lane = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), new CustomizableThreadFactory("booking-lane-" + i + "-"));
+            lanes[i] = lane;
+
+            Gauge.builder("booking.sequencer.lane.queue.depth", lane, executor -> executor.getQueue().size())
+                    .description("Количество команд бронирования в очереди полосы")
+                    .tag("lane", String.valueOf(i))
+                    .register(meterRegistry);
+        }
+
+        Gauge.builder("booking.sequencer.queue.depth", this, BookingSequencer::queueDepth)
+                .description("Суммарное количество команд бронирования в очередях всех полос")
+                .register(meterRegistry);
+        admissionControl.registerQueue(QUEUE_NAME, this::queueDepth);
+    }
+
+    /**
+     * Ставит команду в очередь полосы, за которой закреплена машинка
+     *
+     * @param machineId ключ маршрутизации
+     * @param command   команда бронирования
+     */
+    public void submit(UUID machineId, Runnable command) {
+        laneOf(machineId).execute(admissionControl.trackQueueWait(QUEUE_NAME, () -> {
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                log.error("Booking command for machine {} failed", machineId, e);
+            }
+        }));
+    }
+
+    public int queueDepth() {
+        return Arrays.stream(lanes)
+                .mapToInt(lane -> lane.getQueue().size())
+                .sum();
+    }
+
+    private ThreadPoolExecutor laneOf(UUID machineId) {
+        return lanes[Math.floorMod(Objects.hashCode(machineId), lanes.length)];
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : lanes) {
+            if (!lane.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Booking lane did not drain in time, dropped {} commands", lane.shutdownNow().size());
+            }
+        }
+    }
+}
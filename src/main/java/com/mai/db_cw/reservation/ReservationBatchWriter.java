@@ -0,0 +1,288 @@
+package com.mai.db_cw.reservation;
+
+import com.mai.db_cw.config.infrastructure.operation_storage.OperationAdmissionControl;
+import com.mai.db_cw.config.infrastructure.operation_storage.OperationStorage;
+import com.mai.db_cw.machine_time_slots.SlotOccupancyIndex;
+import com.mai.db_cw.reservation.dao.ReservationRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Group-commit для вставки бронирований: принятые полосами {@link BookingSequencer}
+ * брони копятся в очереди и пишутся пачкой (до max-batch-size штук или
+ * по истечении max-latency) одним batchUpdate в одной транзакции</p>
+ * <p>Каждая операция в {@link OperationStorage} завершается отдельно: конфликтная
+ * строка получает 409, остальные - успех. Если пачка упала целиком
+ * (например, машинку удалили), строки пишутся по одной</p>
+ * <p>Удержание слота пользователем снимается только после успешной записи брони:
+ * при конфликте или ошибке пользователь остается со своим удержанием</p>
+ */
+@Slf4j
+@Component
+public class ReservationBatchWriter implements SmartLifecycle {
+
+    private static final String SLOT_OCCUPIED_MESSAGE = "Выбранный слот уже забронирован";
+
+    private final ReservationRepository reservationRepository;
+    private final OperationStorage operationStorage;
+    private final SlotOccupancyIndex occupancyIndex;
+    private final SlotHoldService slotHoldService;
+    private final TransactionTemplate transactionTemplate;
+    private final DistributionSummary batchSizeSummary;
+
+    private final int maxBatchSize;
+    private final long maxLatencyNanos;
+
+    private final BlockingQueue<Reservation> queue = new LinkedBlockingQueue<>();
+    /**
+     * принятые, но еще не записанные брони (в очереди и в текущей пачке)
+     */
+    private final Map<UUID, Reservation> pending = new ConcurrentHashMap<>();
+    /**
+     * email пользователя, чье удержание снять после записи брони
+     */
+    private final Map<UUID, String> holders = new ConcurrentHashMap<>();
+    private volatile boolean running;
+    private Thread worker;
+
+    public ReservationBatchWriter(
+            ReservationRepository reservationRepository,
+            OperationStorage operationStorage,
+            SlotOccupancyIndex occupancyIndex,
+            SlotHoldService slotHoldService,
+            TransactionTemplate transactionTemplate,
+            MeterRegistry meterRegistry,
+            OperationAdmissionControl admissionControl,
+            @Value("${booking.group-commit.max-batch-size:50}") int maxBatchSize,
+            @Value("${booking.group-commit.max-latency:20ms}") Duration maxLatency) {
+        this.reservationRepository = reservationRepository;
+        this.operationStorage = operationStorage;
+        this.occupancyIndex = occupancyIndex;
+        this.slotHoldService = slotHoldService;
+        this.transactionTemplate = transactionTemplate;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxLatencyNanos = maxLatency.toNanos();
+        this.batchSizeSummary = DistributionSummary.builder("booking.group-commit.batch.size")
+                .description("Количество бронирований, записанных одним коммитом")
+                .register(meterRegistry);
+        admissionControl.registerQueue("group-commit", queue::size);
+    }
+
+    /**
+     * Ставит бронь в очередь на запись. Операция с id брони будет завершена после коммита
+     *
+     * @param reservation проверенная бронь
+     * @param userEmail   пользователь, чье удержание слота снимается после записи
+     */
+    public void enqueue(Reservation reservation, String userEmail) {
+        holders.put(reservation.getId(), userEmail);
+        pending.put(reservation.getId(), reservation);
+        if (!running) {
+            // writer уже остановлен (shutdown), пишем сразу чтобы не потерять операцию
+            flushOneByOne(List.of(reservation));
+            return;
+        }
+
+        queue.add(reservation);
+        // остановка началась между проверкой и add: если бронь никто не забрал из очереди, пишем сами
+        if (!running && queue.remove(reservation)) {
+            flushOneByOne(List.of(reservation));
+        }
+    }
+
+    private void runLoop() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Reservation first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                flush(collectBatch(first));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                log.error("Unexpected error in reservation batch writer", e);
+            }
+        }
+
+        flushRest();
+    }
+
+    private void flushRest() {
+        List<Reservation> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            flush(rest);
+        }
+    }
+
+    /**
+     * добирает пачку пока не наберется max-batch-size или не выйдет окно ожидания
+     */
+    private List<Reservation> collectBatch(Reservation first) throws InterruptedException {
+        List<Reservation> batch = new ArrayList<>(maxBatchSize);
+        batch.add(first);
+
+        long deadline = System.nanoTime() + maxLatencyNanos;
+        while (batch.size() < maxBatchSize) {
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= maxBatchSize || remaining <= 0) {
+                break;
+            }
+
+            Reservation next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+
+        return batch;
+    }
+
+    private void flush(List<Reservation> batch) {
+        int[] counts;
+        try {
+            counts = transactionTemplate.execute(status -> reservationRepository.saveAllSkippingConflicts(batch));
+        } catch (RuntimeException e) {
+            log.warn("Batch insert of {} reservations failed, retrying one by one: {}", batch.size(), e.getMessage());
+            flushOneByOne(batch);
+            return;
+        }
+
+        batchSizeSummary.record(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Reservation reservation = batch.get(i);
+            if (counts != null && counts[i] > 0) {
+                complete(reservation);
+            } else {
+                fail(reservation, SLOT_OCCUPIED_MESSAGE, HttpStatus.CONFLICT);
+            }
+        }
+    }
+
+    private void flushOneByOne(List<Reservation> batch) {
+        for (Reservation reservation : batch) {
+            try {
+                int[] counts = transactionTemplate.execute(status ->
+                        reservationRepository.saveAllSkippingConflicts(List.of(reservation)));
+                if (counts != null && counts[0] > 0) {
+                    complete(reservation);
+                } else {
+                    fail(reservation, SLOT_OCCUPIED_MESSAGE, HttpStatus.CONFLICT);
+                }
+            } catch (DataIntegrityViolationException e) {
+                fail(reservation, e.getMessage(), HttpStatus.CONFLICT);
+            } catch (RuntimeException e) {
+                fail(reservation, e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+
+    private void complete(Reservation reservation) {
+        pending.remove(reservation.getId());
+        try {
+            operationStorage.successfully(reservation.getId());
+        } catch (RuntimeException e) {
+            log.error("Failed to complete operation {}", reservation.getId(), e);
+        }
+
+        String userEmail = holders.remove(reservation.getId());
+        if (userEmail == null) {
+            return;
+        }
+        try {
+            // свое удержание больше не нужно, бронь записана
+            slotHoldService.release(userEmail, reservation.getMachineId(), reservation.getResDate(), reservation.getStartTime());
+        } catch (RuntimeException e) {
+            // удержание истечет само
+            log.warn("Failed to release slot hold of reservation {}: {}", reservation.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Завершает операцию с ошибкой и снимает в индексе занятости биты брони,
+     * т.к. слот был зарезервирован в индексе заранее. Биты остальных броней дня
+     * (из БД и еще не записанных) не трогаются
+     */
+    private void fail(Reservation reservation, String cause, HttpStatus httpStatus) {
+        pending.remove(reservation.getId());
+        holders.remove(reservation.getId());
+        try {
+            operationStorage.failOperation(reservation.getId(), cause, httpStatus);
+
+            List<Reservation> others = new ArrayList<>(reservationRepository.findReservationsForMachineInPeriod(
+                    reservation.getMachineId(), reservation.getResDate(), reservation.getResDate()));
+            others.addAll(pendingFor(reservation.getMachineId(), reservation.getResDate()));
+            occupancyIndex.release(reservation.getMachineId(), reservation.getResDate(),
+                    reservation.getStartTime(), reservation.getEndTime(), others);
+        } catch (RuntimeException e) {
+            log.error("Failed to fail operation {}", reservation.getId(), e);
+        }
+    }
+
+    /**
+     * Принятые, но еще не записанные брони машинки за день
+     */
+    public List<Reservation> pendingFor(UUID machineId, LocalDate date) {
+        return pending.values().stream()
+                .filter(reservation -> reservation.getMachineId().equals(machineId)
+                        && reservation.getResDate().equals(date))
+                .toList();
+    }
+
+    /**
+     * Принятые, но еще не записанные брони всех машинок за период
+     */
+    public List<Reservation> pendingInPeriod(LocalDate from, LocalDate to) {
+        return pending.values().stream()
+                .filter(reservation -> !reservation.getResDate().isBefore(from) && !reservation.getResDate().isAfter(to))
+                .toList();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        worker = new Thread(this::runLoop, "reservation-batch-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // брони, добавленные после последнего drainTo потока
+        flushRest();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
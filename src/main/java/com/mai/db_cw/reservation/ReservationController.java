@@ -1,16 +1,28 @@
 package com.mai.db_cw.reservation;
 
+import com.mai.db_cw.config.infrastructure.auth.dto.ErrorResponseDto;
 import com.mai.db_cw.config.infrastructure.operation_storage.OperationStorage;
+import com.mai.db_cw.config.infrastructure.utility.NdjsonStreamExecutor;
+import com.mai.db_cw.config.infrastructure.utility.NdjsonUtility;
 import com.mai.db_cw.config.infrastructure.utility.OperationUtility;
 import com.mai.db_cw.machines.dto.ReservationLog;
 import com.mai.db_cw.reservation.dao.ReservationRepository;
+import com.mai.db_cw.reservation.dao.ReservationStreamRepository;
+import com.mai.db_cw.config.infrastructure.operation_storage.IdempotentOperationRegistry;
+import com.mai.db_cw.config.infrastructure.operation_storage.OperationAdmissionControl;
+import com.mai.db_cw.config.infrastructure.operation_storage.OperationStatus;
 import com.mai.db_cw.reservation.dto.ReservationRequest;
+import com.mai.db_cw.reservation.dto.ReservationSeriesRequest;
 import com.mai.db_cw.reservation.dto.ReservationUserResponse;
+import com.mai.db_cw.config.infrastructure.exceptions.ApplicationException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.security.Principal;
 import java.util.List;
@@ -25,6 +37,14 @@ public class ReservationController {
     private final ReservationService reservationService;
     private final ReservationRepository reservationRepository;
     private final OperationStorage operationStorage;
+    private final BookingSequencer bookingSequencer;
+    private final ReservationSeriesService reservationSeriesService;
+    private final IdempotentOperationRegistry idempotentOperationRegistry;
+    private final SlotHoldService slotHoldService;
+    private final ReservationStreamRepository reservationStreamRepository;
+    private final NdjsonStreamExecutor ndjsonStreamExecutor;
+    private final ObjectMapper objectMapper;
+    private final OperationAdmissionControl admissionControl;
 
     /**
      * Эндпоинт для получения всех бронирований конкретного пользователя
@@ -54,22 +74,103 @@ public class ReservationController {
     }
 
     /**
-     * Endpoint для создания нового бронирования асинхронно
+     * То же, что /current-user, но в формате NDJSON: брони пишутся в ответ
+     * по мере чтения курсором из БД, память не зависит от длины истории
+     *
+     * @param principal
+     * @return поток броней пользователя, по одной на строку
+     */
+    @GetMapping(value = "/current-user/stream", produces = NdjsonUtility.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamReservationsByUser(
+            Principal principal) {
+        // пользователя ищем до начала ответа, чтобы 404 ушел обычным ответом
+        UUID userId = reservationService.getUserIdByMail(principal.getName());
+        ndjsonStreamExecutor.admit();
+        return NdjsonUtility.<ReservationUserResponse>ndjson(objectMapper,
+                sink -> reservationStreamRepository.streamReservationsByUserId(userId, sink));
+    }
+
+    /**
+     * Endpoint для создания нового бронирования асинхронно,
+     * команда встает в очередь полосы машинки в {@link BookingSequencer}
      * Id операци по бронированию можно опрашивать по адресу:
      * /api/reservations/status/{reservationId}
      *
+     * Повтор с тем же заголовком Idempotency-Key возвращает ту же операцию
+     *
      * @param request Объект запроса на бронирование
      * @return ID бронирования и информация о том, как проверить статус
      */
     @PostMapping("/book")
     public ResponseEntity<Void> createReservation(
             @RequestBody ReservationRequest request,
+            @RequestHeader(value = IdempotentOperationRegistry.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            Principal principal) {
+        return submitBooking(request, idempotencyKey, principal.getName());
+    }
+
+    /**
+     * Endpoint для удержания слота на короткое время (первая фаза бронирования).
+     * Удержание истекает само, пока оно живо слот показывается занятым
+     *
+     * @param request слот, ровно одна ячейка сетки
+     * @return 200 и {@link com.mai.db_cw.reservation.dto.SlotHoldResponse}, 409 если слот занят или удерживается другим
+     */
+    @PostMapping("/hold")
+    public ResponseEntity<?> holdSlot(
+            @RequestBody ReservationRequest request,
+            Principal principal) {
+        log.info("hold request: machineId {}; date {}; start {}; userEmail {};",
+                request.machineId(), request.resDate(), request.startTime(), principal.getName());
+        try {
+            return ResponseEntity.ok(slotHoldService.hold(principal.getName(), request));
+        } catch (ApplicationException e) {
+            return ResponseEntity
+                    .status(e.getHttpStatus())
+                    .body(new ErrorResponseDto(e.getMessage(), e.getHttpStatus().value()));
+        }
+    }
+
+    /**
+     * Endpoint для подтверждения удержания (вторая фаза бронирования).
+     * Дальше работает как /book: 202 и Location для опроса статуса
+     *
+     * @param request удержанный слот
+     * @return 202, или 409 если удержание истекло или принадлежит другому
+     */
+    @PostMapping("/hold/confirm")
+    public ResponseEntity<Void> confirmHold(
+            @RequestBody ReservationRequest request,
+            @RequestHeader(value = IdempotentOperationRegistry.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
             Principal principal) {
+        if (!slotHoldService.isHeldBy(principal.getName(), request)) {
+            log.info("hold confirm rejected: hold expired or not found; userEmail {};", principal.getName());
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+
+        return submitBooking(request, idempotencyKey, principal.getName());
+    }
+
+    /**
+     * Снимает свое удержание слота
+     */
+    @DeleteMapping("/hold")
+    public ResponseEntity<Void> releaseHold(
+            @RequestBody ReservationRequest request,
+            Principal principal) {
+        slotHoldService.release(principal.getName(), request.machineId(), request.resDate(), request.startTime());
+        return ResponseEntity.noContent().build();
+    }
 
-        UUID reservationId = operationStorage.addOperationReturningUUID();
-        reservationService.bookReservation(reservationId, principal.getName(), request);
+    private ResponseEntity<Void> submitBooking(ReservationRequest request, String idempotencyKey, String userEmail) {
+        var registration = idempotentOperationRegistry.register("reservation:" + userEmail, idempotencyKey);
+        UUID reservationId = registration.operationId();
+        if (!registration.duplicate()) {
+            bookingSequencer.submit(request.machineId(),
+                    () -> reservationService.bookReservation(reservationId, userEmail, request));
+        }
         String statusUrl = "/api/reservations/status/" + reservationId.toString();
-        log.info("reservation request: reservId {}; userEmail {};", reservationId, principal.getName());
+        log.info("reservation request: reservId {}; userEmail {}; duplicate {};", reservationId, userEmail, registration.duplicate());
 
         return ResponseEntity
                 .status(HttpStatus.ACCEPTED)
@@ -78,6 +179,55 @@ public class ReservationController {
                 .build();
     }
 
+    /**
+     * Endpoint для бронирования серии слотов одной операцией
+     * (каждую неделю в одно время или явный список слотов одной машинки)
+     * Результат по каждому слоту можно опрашивать по адресу:
+     * /api/reservations/series/status/{operationId}
+     *
+     * @param request серия слотов
+     * @return 202 и заголовок Location для опроса
+     */
+    @PostMapping("/book-series")
+    public ResponseEntity<Void> createReservationSeries(
+            @RequestBody ReservationSeriesRequest request,
+            @RequestHeader(value = IdempotentOperationRegistry.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            Principal principal) {
+
+        String userEmail = principal.getName();
+        var registration = idempotentOperationRegistry.register("reservation-series:" + userEmail, idempotencyKey);
+        UUID operationId = registration.operationId();
+        if (!registration.duplicate()) {
+            bookingSequencer.submit(request.machineId(),
+                    () -> reservationSeriesService.bookSeries(operationId, userEmail, request));
+        }
+        log.info("reservation series request: operationId {}; userEmail {};", operationId, userEmail);
+
+        return ResponseEntity
+                .status(HttpStatus.ACCEPTED)
+                .header("Location", "/api/reservations/series/status/" + operationId)
+                .build();
+    }
+
+    /**
+     * Endpoint для проверки статуса серии бронирований.
+     *
+     * @param operationId ID операции серии
+     * @return 202 пока операция выполняется, иначе результат по каждому слоту
+     * (или статус ошибки операции, если до слотов дело не дошло)
+     */
+    @GetMapping("/series/status/{operationId}")
+    public ResponseEntity<?> getReservationSeriesStatus(@PathVariable UUID operationId) {
+        var operationStatus = operationStorage.getOperationStatus(operationId);
+        if (operationStatus == OperationStatus.ACCEPTED) {
+            return OperationUtility.responseEntityDependsOnOperationStatus(operationStatus);
+        }
+
+        return reservationSeriesService.findResult(operationId)
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> OperationUtility.responseEntityDependsOnOperationStatus(operationStatus));
+    }
+
     /**
      * Endpoint для проверки статуса бронирования по ID.
      *
@@ -111,11 +261,45 @@ public class ReservationController {
                 .ok(reservationRepository.findReservationLogs(limit));
     }
 
+    /**
+     * Логи в формате NDJSON, читаются курсором из БД
+     *
+     * @param limit количество последних логов, без параметра - вся история (только для администратора)
+     * @return поток логов, по одному на строку
+     */
+    @GetMapping(value = "/get-logs/stream", produces = NdjsonUtility.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamReservationLogs(
+            @RequestParam(required = false) Long limit,
+            HttpServletRequest httpRequest) {
+        if (limit == null && !httpRequest.isUserInRole("ADMIN")) {
+            throw new ApplicationException("Параметр limit обязателен", HttpStatus.BAD_REQUEST);
+        }
+        if (limit != null && limit <= 0) {
+            throw new ApplicationException("Параметр limit должен быть больше 0", HttpStatus.BAD_REQUEST);
+        }
+
+        ndjsonStreamExecutor.admit();
+        return NdjsonUtility.<ReservationLog>ndjson(objectMapper,
+                sink -> reservationStreamRepository.streamReservationLogs(limit, sink));
+    }
+
+    /**
+     * Асинхронное удаление брони. У удаления своя операция, id брони
+     * (операция бронирования) для нее не используется
+     *
+     * @param reservationId бронь
+     * @return ID операции удаления, статус - /api/reservations/status/{operationId}
+     */
     @DeleteMapping("/del/{reservationId}")
-    public ResponseEntity<Void> deleteReservation(
+    public ResponseEntity<UUID> deleteReservation(
             @PathVariable UUID reservationId) {
-        reservationRepository.deleteReservationById(reservationId);
-        return ResponseEntity.noContent().build();
+        admissionControl.admit("reservation-delete");
+        UUID operationId = operationStorage.addOperationReturningUUID();
+        reservationRepository.deleteReservationById(reservationId, operationId);
+        return ResponseEntity
+                .status(HttpStatus.ACCEPTED)
+                .header("Location", "/api/reservations/status/" + operationId)
+                .body(operationId);
     }
 
 }
@@ -0,0 +1,94 @@
+package com.mai.db_cw.reservation;
+
+import com.mai.db_cw.config.infrastructure.scheduling.ScheduledJobLock;
+import com.mai.db_cw.reservation.dao.PartitionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * <p>Обслуживание помесячных партиций reservations (по res_date) и reservation_logs (по action_time)</p>
+ * <p>Раз в сутки заранее создает партиции на precreate-months вперед, чтобы новые строки
+ * не попадали в DEFAULT партицию, и отцепляет в схему archive партиции старше retention-months,
+ * чтобы запросы и индексы рабочей таблицы не росли вместе с историей</p>
+ * <p>Брони дальше горизонта (серии, одиночные брони без ограничения даты) лежат в DEFAULT,
+ * пока джоба не дойдет до их месяца, тогда ensure_monthly_partition переносит их в новую партицию</p>
+ * <p>На кластере выполняется одним узлом через сессионный лок {@link ScheduledJobLock},
+ * каждое создание и отцепление партиции коммитится отдельно</p>
+ */
+@Slf4j
+@Component
+public class ReservationPartitionMaintenance {
+
+    private static final List<String> PARTITIONED_TABLES = List.of("reservations", "reservation_logs");
+    private static final DateTimeFormatter SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private static final String JOB_NAME = "reservation-partition-maintenance";
+
+    private final PartitionRepository partitionRepository;
+    private final ScheduledJobLock scheduledJobLock;
+    private final int precreateMonths;
+    private final int retentionMonths;
+
+    public ReservationPartitionMaintenance(
+            PartitionRepository partitionRepository,
+            ScheduledJobLock scheduledJobLock,
+            @Value("${reservations.partitions.precreate-months:3}") int precreateMonths,
+            @Value("${reservations.partitions.retention-months:12}") int retentionMonths) {
+        this.partitionRepository = partitionRepository;
+        this.scheduledJobLock = scheduledJobLock;
+        this.precreateMonths = precreateMonths;
+        this.retentionMonths = retentionMonths;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        maintainPartitions();
+    }
+
+    @Scheduled(cron = "0 30 0 * * *")
+    public void maintainPartitions() {
+        // на старте узла тик не дедуплицируем, джоба идемпотентна
+        // каждый шаг - отдельный вызов функции в своей транзакции, лок джобы сессионный
+        scheduledJobLock.runExclusivelyWithSessionLock(JOB_NAME, Duration.ZERO, () -> {
+            YearMonth current = YearMonth.now();
+            for (String table : PARTITIONED_TABLES) {
+                try {
+                    createFuturePartitions(table, current);
+                    archiveOldPartitions(table, current.minusMonths(retentionMonths));
+                } catch (RuntimeException e) {
+                    log.error("Partition maintenance failed for {}", table, e);
+                }
+            }
+        });
+    }
+
+    private void createFuturePartitions(String table, YearMonth current) {
+        for (int i = 0; i <= precreateMonths; i++) {
+            LocalDate monthStart = current.plusMonths(i).atDay(1);
+            partitionRepository.ensureMonthlyPartition(table, monthStart);
+        }
+    }
+
+    /**
+     * отцепляет партиции, месяц которых раньше cutoff
+     */
+    private void archiveOldPartitions(String table, YearMonth cutoff) {
+        for (String partition : partitionRepository.findMonthlyPartitions(table)) {
+            YearMonth month = YearMonth.parse(partition.substring(partition.length() - 6), SUFFIX_FORMAT);
+            if (month.isBefore(cutoff)) {
+                partitionRepository.archivePartition(table, partition);
+                log.info("Partition {} of {} archived", partition, table);
+            }
+        }
+    }
+}
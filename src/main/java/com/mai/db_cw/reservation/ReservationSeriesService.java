@@ -0,0 +1,190 @@
+package com.mai.db_cw.reservation;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.uuid.Generators;
+import com.mai.db_cw.config.infrastructure.exceptions.ApplicationException;
+import com.mai.db_cw.config.infrastructure.exceptions.EntityNotFoundException;
+import com.mai.db_cw.config.infrastructure.exceptions.InvalidUserInfoException;
+import com.mai.db_cw.config.infrastructure.operation_storage.OperationStorage;
+import com.mai.db_cw.machine_time_slots.SlotOccupancyIndex;
+import com.mai.db_cw.machines.MachineService;
+import com.mai.db_cw.reservation.dao.ReservationRepository;
+import com.mai.db_cw.reservation.dto.ReservationSeriesRequest;
+import com.mai.db_cw.reservation.dto.ReservationSeriesResponse;
+import com.mai.db_cw.reservation.dto.ReservationSeriesResponse.SlotResult;
+import com.mai.db_cw.reservation.dto.ReservationSeriesResponse.SlotStatus;
+import com.mai.db_cw.user.User;
+import com.mai.db_cw.user.UserService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Серия бронирований (еженедельный повтор или явный список слотов) одной операцией:
+ * одна выборка броней за весь период серии, одна пакетная вставка в одной транзакции
+ * и один id операции с результатом по каждому слоту</p>
+ * <p>Результат по слотам сохраняется вместе с операцией в {@link OperationStorage} и живет столько же,
+ * поэтому /api/reservations/series/status/{id} отдает его с любого узла и после рестарта</p>
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReservationSeriesService {
+
+    private final ReservationRepository reservationRepository;
+    private final UserService userService;
+    private final MachineService machineService;
+    private final OperationStorage operationStorage;
+    private final SlotOccupancyIndex occupancyIndex;
+    private final SlotHoldService slotHoldService;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Бронирование серии, вызывается из полосы {@link BookingSequencer} машинки
+     */
+    public void bookSeries(UUID operationId, String userEmail, ReservationSeriesRequest request) {
+        try {
+            User user = userService.findByEmail(userEmail)
+                    .orElseThrow(() -> new InvalidUserInfoException("Пользователь не найден"));
+
+            machineService.findById(request.machineId())
+                    .orElseThrow(() -> new EntityNotFoundException("Машинка не найдена"));
+
+            List<ReservationSeriesRequest.Slot> slots = request.expand();
+            LocalDateTime now = LocalDateTime.now();
+
+            // одна выборка всех броней машинки за весь период серии
+            LocalDate from = slots.stream().map(ReservationSeriesRequest.Slot::resDate).min(LocalDate::compareTo).orElseThrow();
+            LocalDate to = slots.stream().map(ReservationSeriesRequest.Slot::resDate).max(LocalDate::compareTo).orElseThrow();
+            Map<LocalDate, List<Reservation>> existingByDate = reservationRepository
+                    .findReservationsForMachineInPeriod(request.machineId(), from, to)
+                    .stream()
+                    .collect(Collectors.groupingBy(Reservation::getResDate));
+
+            // удержания других пользователей одним MGET на всю серию
+            boolean[] heldByOther = slotHoldService.heldByOther(userEmail, request.machineId(), slots);
+
+            List<SlotResult> slotResults = new ArrayList<>(slots.size());
+            List<Reservation> accepted = new ArrayList<>();
+            for (int i = 0; i < slots.size(); i++) {
+                ReservationSeriesRequest.Slot slot = slots.get(i);
+                SlotStatus status;
+                if (LocalDateTime.of(slot.resDate(), slot.startTime()).isBefore(now)) {
+                    status = SlotStatus.REJECTED;
+                } else if (isOccupied(request.machineId(), slot, existingByDate)) {
+                    status = SlotStatus.CONFLICT;
+                } else if (heldByOther[i]) {
+                    status = SlotStatus.HELD;
+                } else {
+                    Reservation reservation = Reservation.builder()
+                            .id(Generators.timeBasedEpochGenerator().generate())
+                            .userId(user.getId())
+                            .machineId(request.machineId())
+                            .resDate(slot.resDate())
+                            .startTime(slot.startTime())
+                            .endTime(slot.endTime())
+                            .status("PENDING")
+                            .creationTime(now)
+                            .modifiedTime(now)
+                            .build();
+                    accepted.add(reservation);
+                    // пересечения внутри самой серии тоже считаем конфликтом
+                    existingByDate.computeIfAbsent(slot.resDate(), d -> new ArrayList<>()).add(reservation);
+                    status = SlotStatus.BOOKED;
+                }
+
+                slotResults.add(SlotResult.builder()
+                        .resDate(slot.resDate())
+                        .startTime(slot.startTime())
+                        .endTime(slot.endTime())
+                        .status(status)
+                        .build());
+            }
+
+            int[] counts = accepted.isEmpty()
+                    ? new int[0]
+                    : transactionTemplate.execute(status -> reservationRepository.saveAllSkippingConflicts(accepted));
+            applyInsertResults(slotResults, accepted, counts);
+
+            String result = objectMapper.writeValueAsString(ReservationSeriesResponse.builder()
+                    .operationId(operationId)
+                    .machineId(request.machineId())
+                    .slots(slotResults)
+                    .build());
+
+            if (slotResults.stream().anyMatch(slotResult -> slotResult.getStatus() == SlotStatus.BOOKED)) {
+                operationStorage.successfully(operationId, result);
+            } else {
+                operationStorage.failOperation(operationId, "Ни один слот серии не забронирован", HttpStatus.CONFLICT, result);
+            }
+        } catch (ApplicationException e) {
+            operationStorage.failOperation(operationId, e.getMessage(), e.getHttpStatus());
+        } catch (DataIntegrityViolationException e) {
+            operationStorage.failOperation(operationId, e.getMessage(), HttpStatus.CONFLICT);
+        } catch (JsonProcessingException | RuntimeException e) {
+            operationStorage.failOperation(operationId, e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Результат серии по слотам, сохраненный вместе с операцией
+     */
+    public Optional<ReservationSeriesResponse> findResult(UUID operationId) {
+        return operationStorage.getOperationResult(operationId)
+                .map(this::readResult);
+    }
+
+    private ReservationSeriesResponse readResult(String result) {
+        try {
+            return objectMapper.readValue(result, ReservationSeriesResponse.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Не удалось прочитать результат серии", e);
+        }
+    }
+
+    private boolean isOccupied(UUID machineId, ReservationSeriesRequest.Slot slot,
+                               Map<LocalDate, List<Reservation>> existingByDate) {
+        // индекс видит и брони, которые еще ждут записи в group-commit
+        if (occupancyIndex.canAnswer(machineId, slot.resDate(), slot.startTime(), slot.endTime())
+                && !occupancyIndex.isFree(machineId, slot.resDate(), slot.startTime(), slot.endTime())) {
+            return true;
+        }
+
+        return existingByDate.getOrDefault(slot.resDate(), Collections.emptyList())
+                .stream()
+                .anyMatch(reservation -> reservation.getStartTime().isBefore(slot.endTime())
+                        && reservation.getEndTime().isAfter(slot.startTime()));
+    }
+
+    /**
+     * Проставляет итог вставки: строка, которую отбросил ON CONFLICT, становится CONFLICT
+     */
+    private void applyInsertResults(List<SlotResult> slotResults, List<Reservation> accepted, int[] counts) {
+        Iterator<Reservation> inserted = accepted.iterator();
+        int i = 0;
+        for (SlotResult result : slotResults) {
+            if (result.getStatus() != SlotStatus.BOOKED) {
+                continue;
+            }
+
+            Reservation reservation = inserted.next();
+            if (counts != null && counts[i] > 0) {
+                result.setReservationId(reservation.getId());
+            } else {
+                result.setStatus(SlotStatus.CONFLICT);
+            }
+            i++;
+        }
+    }
+}
@@ -4,7 +4,9 @@ import com.mai.db_cw.config.infrastructure.exceptions.ApplicationException;
 import com.mai.db_cw.config.infrastructure.exceptions.EntityNotFoundException;
 import com.mai.db_cw.config.infrastructure.exceptions.InvalidUserInfoException;
 import com.mai.db_cw.config.infrastructure.operation_storage.OperationStorage;
+import com.mai.db_cw.config.infrastructure.scheduling.ScheduledJobLock;
 import com.mai.db_cw.machine_time_slots.MachineTimeSlotRepository;
+import com.mai.db_cw.machine_time_slots.SlotOccupancyIndex;
 import com.mai.db_cw.machines.Machine;
 import com.mai.db_cw.machines.MachineService;
 import com.mai.db_cw.reservation.dao.ReservationRepository;
@@ -12,15 +14,14 @@ import com.mai.db_cw.reservation.dto.ReservationRequest;
 import com.mai.db_cw.reservation.dto.ReservationUserResponse;
 import com.mai.db_cw.user.User;
 import com.mai.db_cw.user.UserService;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
@@ -28,7 +29,6 @@ import java.util.List;
 import java.util.UUID;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class ReservationService {
 
@@ -37,14 +37,53 @@ public class ReservationService {
     private final UserService userService;
     private final MachineService machineService;
     private final OperationStorage operationStorage;
+    private final SlotOccupancyIndex occupancyIndex;
+    private final ReservationBatchWriter reservationBatchWriter;
+    private final SlotHoldService slotHoldService;
+    private final ScheduledJobLock scheduledJobLock;
+    private final ReservationStatusProcessor reservationStatusProcessor;
+    private final Duration reconcileInterval;
+
+    public ReservationService(
+            ReservationRepository reservationRepository,
+            MachineTimeSlotRepository machineTimeSlotRepository,
+            UserService userService,
+            MachineService machineService,
+            OperationStorage operationStorage,
+            SlotOccupancyIndex occupancyIndex,
+            ReservationBatchWriter reservationBatchWriter,
+            SlotHoldService slotHoldService,
+            ScheduledJobLock scheduledJobLock,
+            ReservationStatusProcessor reservationStatusProcessor,
+            @Value("${reservations.status.reconcile-interval:PT1M}") Duration reconcileInterval) {
+        this.reservationRepository = reservationRepository;
+        this.machineTimeSlotRepository = machineTimeSlotRepository;
+        this.userService = userService;
+        this.machineService = machineService;
+        this.operationStorage = operationStorage;
+        this.occupancyIndex = occupancyIndex;
+        this.reservationBatchWriter = reservationBatchWriter;
+        this.slotHoldService = slotHoldService;
+        this.scheduledJobLock = scheduledJobLock;
+        this.reservationStatusProcessor = reservationStatusProcessor;
+        this.reconcileInterval = reconcileInterval;
+    }
 
     /**
-     * Метод для бронирования слота
+     * Метод для бронирования слота.
+     * Вызывается из полосы {@link BookingSequencer}, поэтому команды
+     * для одной машинки выполняются последовательно.
+     * Запись в БД и завершение операции делает {@link ReservationBatchWriter}
      */
-    @Async
-    @Transactional
     public void bookReservation(UUID randomId, String userEmail, ReservationRequest request) {
         try {
+            // пустой или перевернутый интервал проверяем до всего остального:
+            // маска такого интервала пустая, и индекс считал бы слот свободным
+            if (request.startTime() == null || request.endTime() == null
+                    || !request.startTime().isBefore(request.endTime())) {
+                throw new ApplicationException("Время начала брони должно быть раньше времени окончания", HttpStatus.BAD_REQUEST);
+            }
+
             // Проверка существования пользователя и машинки
             User user = userService.findByEmail(userEmail)
                     .orElseThrow(() -> new InvalidUserInfoException("Пользователь не найден"));
@@ -53,13 +92,7 @@ public class ReservationService {
                     .orElseThrow(() -> new EntityNotFoundException("Машинка не найдена"));
 
             // Проверка доступности слота
-            boolean isAvailable = reservationRepository
-                    .findReservationsForMachineInPeriod(request.machineId(), request.resDate(), request.resDate())
-                    .stream()
-                    .noneMatch(reservation ->
-                            (reservation.getStartTime().equals(request.startTime()) && reservation.getEndTime().equals(request.endTime())) ||
-                                    (reservation.getStartTime().isBefore(request.endTime()) && reservation.getEndTime().isAfter(request.startTime()))
-                    );
+            boolean isAvailable = isSlotAvailable(request);
 
             if (request.resDate().isBefore(LocalDate.now()) && request.startTime().isBefore(LocalTime.now())) {
                 throw new ApplicationException("Нельзя бронировать на время которое до сейчас, типа оно уже прошло ну, типа прошлое", HttpStatus.BAD_REQUEST);
@@ -69,6 +102,11 @@ public class ReservationService {
                 throw new ApplicationException("Выбранный слот уже забронирован", HttpStatus.CONFLICT);
             }
 
+            if (slotHoldService.isHeldByOther(userEmail, request.machineId(), request.resDate(),
+                    request.startTime(), request.endTime())) {
+                throw new ApplicationException("Слот удерживается другим пользователем", HttpStatus.CONFLICT);
+            }
+
             // Создание нового бронирования
             Reservation reservation = Reservation.builder()
                     .id(randomId)
@@ -82,8 +120,11 @@ public class ReservationService {
                     .modifiedTime(LocalDateTime.now())
                     .build();
 
-            reservationRepository.save(reservation);
-            operationStorage.successfully(randomId);
+            // слот занимаем в индексе сразу, чтобы следующие команды полосы видели его занятым
+            occupancyIndex.occupy(reservation.getMachineId(), reservation.getResDate(),
+                    reservation.getStartTime(), reservation.getEndTime());
+            // свое удержание writer снимет после записи брони
+            reservationBatchWriter.enqueue(reservation, userEmail);
         } catch (ApplicationException e) {
             operationStorage.failOperation(randomId, e.getMessage(), e.getHttpStatus());
         } catch (DataIntegrityViolationException e) {
@@ -93,6 +134,19 @@ public class ReservationService {
         }
     }
 
+    /**
+     * Проверяет доступность слота: если интервал лежит на сетке и индекс прогрет,
+     * отвечаем из памяти без похода в БД, иначе спрашиваем у БД индексированным запросом пересечений
+     */
+    private boolean isSlotAvailable(ReservationRequest request) {
+        if (occupancyIndex.canAnswer(request.machineId(), request.resDate(), request.startTime(), request.endTime())) {
+            return occupancyIndex.isFree(request.machineId(), request.resDate(), request.startTime(), request.endTime());
+        }
+
+        return !reservationRepository.existsOverlapping(
+                request.machineId(), request.resDate(), request.startTime(), request.endTime());
+    }
+
     /**
      * Кидает исключение если уже занят слот
      * Иначе отмечает в базе статус что слот занят, дабы избежать гонки за один и тот же слот
@@ -129,6 +183,16 @@ public class ReservationService {
      * @return
      */
     public List<ReservationUserResponse> getAllByUserMail(String email) {
+        return reservationRepository.findAllReservationsByUserId(getUserIdByMail(email));
+    }
+
+    /**
+     * Id пользователя по почте, 404 если такого нет
+     *
+     * @param email почта пользователя
+     * @return id пользователя
+     */
+    public UUID getUserIdByMail(String email) {
         var user = userService.findByEmail(email);
         if (user.isEmpty()) {
             log.error("User by email not found");
@@ -136,45 +200,18 @@ public class ReservationService {
         }
 
         log.info("User by email found with email, id: {} {}", user.get().getEmail(), user.get().getId());
-        return reservationRepository.findAllReservationsByUserId(user.get().getId());
+        return user.get().getId();
     }
 
     /**
-     * обновляет статусы асинхронно раз в 1 минуту(60000мс)
+     * Перевод статусов по водяному знаку (см. {@link ReservationStatusProcessor}): за тик
+     * обрабатываются только брони, начало или окончание которых попало в окно с прошлого тика.
+     * Точные переходы делает {@link ReservationStatusTimer}, этот проход подбирает пропущенное.
+     * На кластере выполняется одним узлом за тик через {@link ScheduledJobLock}
      */
-    @Scheduled(fixedRate = 60000)
+    @Scheduled(fixedRateString = "${reservations.status.reconcile-interval:PT1M}")
     public void updateBookingStatuses() {
-        log.info("Начало работы метода обновления статусов на актуальные");
-        LocalDateTime now = LocalDateTime.now();
-
-        var reservations = reservationRepository.findAll().stream()
-                .peek(reservation -> {
-                    String newStatus = determineStatus(reservation, now);
-
-                    // Если статус изменился, обновляем его
-                    if (!reservation.getStatus().equals(newStatus)) {
-                        reservation.setStatus(newStatus);
-                        reservation.setModifiedTime(now);
-                        reservationRepository.updateStatus(reservation);
-                    }
-                })
-                .toList();
-        log.info("обновлено статусов: {} {}", reservations.size(), reservations);
-    }
-
-    /**
-     * Метод для определения нового статуса бронирования.
-     */
-    private String determineStatus(Reservation reservation, LocalDateTime now) {
-        LocalDateTime startDateTime = LocalDateTime.of(reservation.getResDate(), reservation.getStartTime());
-        LocalDateTime endDateTime = LocalDateTime.of(reservation.getResDate(), reservation.getEndTime());
-
-        if (now.isBefore(startDateTime)) {
-            return "PENDING"; // Если текущее время до начала бронирования
-        } else if (now.isAfter(startDateTime) && now.isBefore(endDateTime)) {
-            return "ACTIVE"; // Если текущее время в пределах временного слота
-        } else {
-            return "FINISHED"; // Если текущее время после окончания бронирования
-        }
+        scheduledJobLock.runExclusively("reservation-status-sweep", reconcileInterval.dividedBy(2),
+                () -> reservationStatusProcessor.process(LocalDateTime.now()));
     }
-}
\ No newline at end of file
+}
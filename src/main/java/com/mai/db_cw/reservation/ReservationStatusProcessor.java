@@ -0,0 +1,129 @@
+package com.mai.db_cw.reservation;
+
+import com.mai.db_cw.config.infrastructure.scheduling.WatermarkRepository;
+import com.mai.db_cw.reservation.dao.ReservationRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Инкрементальный перевод статусов броней по водяному знаку.</p>
+ * <p>В scheduler_watermarks хранится последний обработанный момент. За тик обрабатывается
+ * только окно (watermark, now]: брони, начало или окончание которых попало в окно.
+ * Окно режется на куски не длиннее chunk и не пересекающие полночь, поэтому каждый
+ * UPDATE идет по одному дню (одной партиции) и частичным индексам. После простоя
+ * пропущенный интервал догоняется кусками, не больше max-chunks-per-tick за тик</p>
+ * <p>Окно заканчивается не на now, а на now - grace: бронь, транзакция которой
+ * закоммитилась позже, чем водяной знак прошел ее начало или окончание, иначе
+ * больше никогда не попала бы в окно</p>
+ * <p>Вызывается в транзакции {@link com.mai.db_cw.config.infrastructure.scheduling.ScheduledJobLock},
+ * водяной знак сдвигается в той же транзакции, что и UPDATE</p>
+ */
+@Slf4j
+@Component
+public class ReservationStatusProcessor {
+
+    private static final String JOB_NAME = "reservation-status-watermark";
+
+    private final ReservationRepository reservationRepository;
+    private final WatermarkRepository watermarkRepository;
+    private final MeterRegistry meterRegistry;
+    private final Duration chunk;
+    private final int maxChunksPerTick;
+    private final Duration grace;
+    private final AtomicLong lagSeconds = new AtomicLong();
+
+    public ReservationStatusProcessor(
+            ReservationRepository reservationRepository,
+            WatermarkRepository watermarkRepository,
+            MeterRegistry meterRegistry,
+            @Value("${reservations.status.chunk:PT1H}") Duration chunk,
+            @Value("${reservations.status.max-chunks-per-tick:48}") int maxChunksPerTick,
+            @Value("${reservations.status.grace:PT2M}") Duration grace) {
+        this.reservationRepository = reservationRepository;
+        this.watermarkRepository = watermarkRepository;
+        this.meterRegistry = meterRegistry;
+        this.chunk = chunk;
+        this.maxChunksPerTick = Math.max(1, maxChunksPerTick);
+        this.grace = grace;
+        Gauge.builder("reservations.status.watermark.lag", lagSeconds, AtomicLong::get)
+                .description("Отставание водяного знака обработки статусов, секунды")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Обрабатывает окно от водяного знака до now - grace
+     *
+     * @param now текущее время, время изменения броней
+     */
+    public void process(LocalDateTime now) {
+        LocalDateTime until = now.minus(grace);
+        Optional<LocalDateTime> watermark = watermarkRepository.findWatermark(JOB_NAME);
+        if (watermark.isEmpty()) {
+            bootstrap(now, until);
+            return;
+        }
+
+        LocalDateTime from = watermark.get();
+        int chunks = 0;
+        int finished = 0;
+        int activated = 0;
+        while (from.isBefore(until) && chunks < maxChunksPerTick) {
+            LocalDateTime dayEnd = from.toLocalDate().plusDays(1).atStartOfDay();
+            LocalDateTime to = min(min(from.plus(chunk), dayEnd), until);
+
+            // окно до полуночи: верхней границы по времени внутри дня нет
+            LocalTime toTime = to.equals(dayEnd) ? null : to.toLocalTime();
+            finished += reservationRepository.finishEndedInWindow(from.toLocalDate(), from.toLocalTime(), toTime, now);
+            if (toTime != null) {
+                activated += reservationRepository.activateStartedInWindow(from.toLocalDate(), from.toLocalTime(), toTime, now);
+            }
+
+            from = to;
+            chunks++;
+        }
+
+        watermarkRepository.saveWatermark(JOB_NAME, from);
+        lagSeconds.set(Duration.between(from, now).toSeconds());
+        recordTransitions("FINISHED", finished);
+        recordTransitions("ACTIVE", activated);
+        log.info("обновлено статусов: FINISHED {}, ACTIVE {}, окон {}, водяной знак {}", finished, activated, chunks, from);
+    }
+
+    /**
+     * Первый запуск: водяного знака еще нет, один раз сверяем все незавершенные брони целиком.
+     * Водяной знак ставится с отступом grace, повторная обработка этого интервала ничего не меняет
+     */
+    private void bootstrap(LocalDateTime now, LocalDateTime until) {
+        int finished = reservationRepository.finishElapsed(now);
+        int activated = reservationRepository.activateStarted(now);
+        watermarkRepository.saveWatermark(JOB_NAME, until);
+
+        recordTransitions("FINISHED", finished);
+        recordTransitions("ACTIVE", activated);
+        log.info("Status watermark initialized at {}: FINISHED {}, ACTIVE {}", now, finished, activated);
+    }
+
+    private void recordTransitions(String status, int count) {
+        Counter.builder("reservations.status.transitions")
+                .description("Количество броней, переведенных в статус")
+                .tag("status", status)
+                .tag("source", "watermark")
+                .register(meterRegistry)
+                .increment(count);
+    }
+
+    private static LocalDateTime min(LocalDateTime a, LocalDateTime b) {
+        return a.isBefore(b) ? a : b;
+    }
+}
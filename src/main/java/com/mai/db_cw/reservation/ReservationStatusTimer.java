@@ -0,0 +1,209 @@
+package com.mai.db_cw.reservation;
+
+import com.mai.db_cw.reservation.dao.ReservationRepository;
+import com.mai.db_cw.reservation.event.ReservationChangedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Таймер переходов статусов броней: для каждой PENDING/ACTIVE брони в {@link DelayQueue}
+ * лежат моменты начала (PENDING -> ACTIVE) и окончания (-> FINISHED)</p>
+ * <p>Поток таймера просыпается ровно к ближайшему переходу, забирает все наступившие
+ * и применяет их условными UPDATE пачками, поэтому работа БД пропорциональна
+ * числу реальных переходов. Очередь загружается страницами при старте
+ * и пополняется по {@link ReservationChangedEvent}</p>
+ * <p>Инкрементальный проход по водяному знаку в {@link ReservationService#updateBookingStatuses()}
+ * подбирает то, что таймер этого узла не видел (брони других узлов, падение узла)</p>
+ */
+@Slf4j
+@Component
+public class ReservationStatusTimer implements SmartLifecycle {
+
+    private static final int LOAD_PAGE_SIZE = 1000;
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final List<String> ACTIVATE_FROM = List.of("PENDING");
+    private static final List<String> FINISH_FROM = List.of("PENDING", "ACTIVE");
+
+    private final ReservationRepository reservationRepository;
+    private final MeterRegistry meterRegistry;
+    private final DelayQueue<Transition> queue = new DelayQueue<>();
+
+    private volatile boolean running;
+    private Thread worker;
+
+    public ReservationStatusTimer(ReservationRepository reservationRepository, MeterRegistry meterRegistry) {
+        this.reservationRepository = reservationRepository;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("reservations.status.timer.pending", queue, DelayQueue::size)
+                .description("Количество запланированных переходов статусов")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Срабатывает после коммита транзакции, в которой изменилась бронь
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onReservationChanged(ReservationChangedEvent event) {
+        switch (event.type()) {
+            case CREATED -> schedule(event.reservationId(), event.resDate(), event.startTime(), event.endTime());
+            case DELETED -> queue.removeIf(transition -> transition.reservationId().equals(event.reservationId()));
+        }
+    }
+
+    private void schedule(UUID reservationId, LocalDate resDate, LocalTime startTime, LocalTime endTime) {
+        long startAt = epochMillis(resDate, startTime);
+        long endAt = epochMillis(resDate, endTime);
+
+        // если бронь уже закончилась, ACTIVE не ставим, сразу завершаем
+        if (endAt > System.currentTimeMillis()) {
+            queue.add(new Transition(reservationId, resDate, Target.ACTIVE, startAt));
+        }
+        queue.add(new Transition(reservationId, resDate, Target.FINISHED, endAt));
+    }
+
+    private void runLoop() {
+        loadOpenReservations();
+
+        while (running) {
+            try {
+                Transition first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                List<Transition> due = new ArrayList<>();
+                due.add(first);
+                queue.drainTo(due);
+                apply(due);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                log.error("Unexpected error in reservation status timer", e);
+            }
+        }
+    }
+
+    /**
+     * Загружает незавершенные брони страницами, чтобы не тянуть всю таблицу одним запросом
+     */
+    private void loadOpenReservations() {
+        LocalDate afterDate = LocalDate.EPOCH;
+        UUID afterId = new UUID(0, 0);
+        int loaded = 0;
+        try {
+            List<Reservation> page;
+            do {
+                page = reservationRepository.findOpenPage(afterDate, afterId, LOAD_PAGE_SIZE);
+                for (Reservation reservation : page) {
+                    schedule(reservation.getId(), reservation.getResDate(), reservation.getStartTime(), reservation.getEndTime());
+                }
+                loaded += page.size();
+
+                if (!page.isEmpty()) {
+                    Reservation last = page.get(page.size() - 1);
+                    afterDate = last.getResDate();
+                    afterId = last.getId();
+                }
+            } while (running && page.size() == LOAD_PAGE_SIZE);
+        } catch (RuntimeException e) {
+            log.error("Failed to load open reservations into status timer, loaded {}", loaded, e);
+        }
+
+        log.info("Reservation status timer loaded {} open reservations", loaded);
+    }
+
+    /**
+     * ACTIVE применяем раньше FINISHED, чтобы завершенная бронь не стала снова активной
+     */
+    private void apply(List<Transition> due) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Transition> toActivate = new ArrayList<>();
+        List<Transition> toFinish = new ArrayList<>();
+        for (Transition transition : due) {
+            if (transition.target() == Target.ACTIVE) {
+                toActivate.add(transition);
+            } else {
+                toFinish.add(transition);
+            }
+        }
+
+        applyInBatches(toActivate, ACTIVATE_FROM, "ACTIVE", now);
+        applyInBatches(toFinish, FINISH_FROM, "FINISHED", now);
+    }
+
+    private void applyInBatches(List<Transition> transitions, List<String> fromStatuses, String targetStatus, LocalDateTime now) {
+        for (int from = 0; from < transitions.size(); from += MAX_BATCH_SIZE) {
+            List<Transition> batch = transitions.subList(from, Math.min(transitions.size(), from + MAX_BATCH_SIZE));
+            List<UUID> ids = batch.stream().map(Transition::reservationId).toList();
+            LocalDate fromDate = batch.stream().map(Transition::resDate).min(LocalDate::compareTo).orElseThrow();
+            LocalDate toDate = batch.stream().map(Transition::resDate).max(LocalDate::compareTo).orElseThrow();
+            int updated = reservationRepository.transitionStatus(ids, fromDate, toDate, fromStatuses, targetStatus, now);
+            Counter.builder("reservations.status.transitions")
+                    .description("Количество броней, переведенных в статус")
+                    .tag("status", targetStatus)
+                    .tag("source", "timer")
+                    .register(meterRegistry)
+                    .increment(updated);
+            log.debug("Status timer: {} of {} reservations moved to {}", updated, batch.size(), targetStatus);
+        }
+    }
+
+    private static long epochMillis(LocalDate date, LocalTime time) {
+        return LocalDateTime.of(date, time).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        worker = new Thread(this::runLoop, "reservation-status-timer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private enum Target {
+        ACTIVE,
+        FINISHED
+    }
+
+    /**
+     * Запланированный переход брони в статус в момент dueAt (epoch millis)
+     */
+    private record Transition(UUID reservationId, LocalDate resDate, Target target, long dueAt) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAt, ((Transition) other).dueAt);
+        }
+    }
+}
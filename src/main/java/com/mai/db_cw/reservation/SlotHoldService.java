@@ -0,0 +1,296 @@
+package com.mai.db_cw.reservation;
+
+import com.mai.db_cw.config.infrastructure.exceptions.ApplicationException;
+import com.mai.db_cw.config.infrastructure.versioning.ResourceVersions;
+import com.mai.db_cw.machine_time_slots.SlotGrid;
+import com.mai.db_cw.machine_time_slots.SlotGridRegistry;
+import com.mai.db_cw.machine_time_slots.SlotOccupancyIndex;
+import com.mai.db_cw.reservation.dao.ReservationRepository;
+import com.mai.db_cw.reservation.dto.ReservationRequest;
+import com.mai.db_cw.reservation.dto.ReservationSeriesRequest;
+import com.mai.db_cw.reservation.dto.SlotHoldResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+
+/**
+ * <p>Короткие удержания слотов (двухфазное бронирование): пользователь сначала
+ * удерживает слот на ttl, потом подтверждает бронь через обычный путь бронирования</p>
+ * <p>Удержание - это ключ в Redis с TTL на (машинка, дата, начало слота), значение - email
+ * держателя. Истекшие удержания Redis удаляет сам, без сканирования БД</p>
+ */
+@Slf4j
+@Service
+public class SlotHoldService {
+
+    private static final String KEY_PREFIX = "slot-hold:";
+    /**
+     * столько ключей максимум в одном MGET, большие выборки режутся на части
+     */
+    private static final int MAX_KEYS_PER_MGET = 1000;
+
+    /**
+     * удаляет удержание только если его держит этот же пользователь
+     */
+    private static final RedisScript<Long> RELEASE_IF_OWNER = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private static final long HOLD_ACQUIRED = 1;
+    private static final long HOLD_RENEWED = 2;
+
+    /**
+     * берет удержание (1) или продлевает свое (2) одной командой; 0 - слот держит другой
+     */
+    private static final RedisScript<Long> HOLD_OR_RENEW_IF_OWNER = new DefaultRedisScript<>(
+            "if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 end "
+                    + "if redis.call('GET', KEYS[1]) == ARGV[1] then "
+                    + "redis.call('PEXPIRE', KEYS[1], ARGV[2]) return 2 end "
+                    + "return 0",
+            Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final SlotOccupancyIndex occupancyIndex;
+    private final ReservationRepository reservationRepository;
+    private final SlotGridRegistry slotGridRegistry;
+    private final ResourceVersions resourceVersions;
+    private final Duration holdTtl;
+
+    public SlotHoldService(
+            StringRedisTemplate redisTemplate,
+            SlotOccupancyIndex occupancyIndex,
+            SlotGridRegistry slotGridRegistry,
+            ResourceVersions resourceVersions,
+            ReservationRepository reservationRepository,
+            @Value("${booking.hold.ttl:5m}") Duration holdTtl) {
+        this.redisTemplate = redisTemplate;
+        this.occupancyIndex = occupancyIndex;
+        this.slotGridRegistry = slotGridRegistry;
+        this.resourceVersions = resourceVersions;
+        this.reservationRepository = reservationRepository;
+        this.holdTtl = holdTtl;
+    }
+
+    /**
+     * Удерживает слот за пользователем. Повторный вызов тем же пользователем продлевает удержание
+     *
+     * @param userEmail держатель
+     * @param request   слот, ровно одна ячейка сетки
+     * @return информация об удержании
+     */
+    public SlotHoldResponse hold(String userEmail, ReservationRequest request) {
+        validateSingleSlot(request);
+
+        if (LocalDateTime.of(request.resDate(), request.startTime()).isBefore(LocalDateTime.now())) {
+            throw new ApplicationException("Нельзя удерживать слот в прошлом", HttpStatus.BAD_REQUEST);
+        }
+
+        if (!isFreeInStorage(request)) {
+            throw new ApplicationException("Выбранный слот уже забронирован", HttpStatus.CONFLICT);
+        }
+
+        String key = key(request.machineId(), request.resDate(), request.startTime());
+        Long result = redisTemplate.execute(HOLD_OR_RENEW_IF_OWNER, List.of(key),
+                userEmail, String.valueOf(holdTtl.toMillis()));
+        if (result == null || (result != HOLD_ACQUIRED && result != HOLD_RENEWED)) {
+            throw new ApplicationException("Слот уже удерживается другим пользователем", HttpStatus.CONFLICT);
+        }
+        if (result == HOLD_ACQUIRED) {
+            resourceVersions.bumpSlotsDay(request.resDate());
+        }
+
+        log.debug("Slot {} held by {}", key, userEmail);
+        return SlotHoldResponse.builder()
+                .machineId(request.machineId())
+                .resDate(request.resDate())
+                .startTime(request.startTime())
+                .endTime(request.endTime())
+                .expiresAt(LocalDateTime.now().plus(holdTtl))
+                .build();
+    }
+
+    /**
+     * true если слот удерживает именно этот пользователь
+     */
+    public boolean isHeldBy(String userEmail, ReservationRequest request) {
+        String holder = redisTemplate.opsForValue().get(key(request.machineId(), request.resDate(), request.startTime()));
+        return userEmail.equals(holder);
+    }
+
+    /**
+     * true если хотя бы одну ячейку интервала удерживает другой пользователь
+     */
+    public boolean isHeldByOther(String userEmail, UUID machineId, LocalDate date, LocalTime start, LocalTime end) {
+        SlotGrid grid = slotGridRegistry.gridFor(machineId);
+        long mask = grid.maskOf(start, end);
+        List<String> keys = new ArrayList<>();
+        for (int slot = 0; slot < grid.getSlotsPerDay(); slot++) {
+            if ((mask & (1L << slot)) != 0) {
+                keys.add(key(machineId, date, grid.startOf(slot)));
+            }
+        }
+        if (keys.isEmpty()) {
+            return false;
+        }
+
+        List<String> holders = redisTemplate.opsForValue().multiGet(keys);
+        return holders != null && holders.stream().anyMatch(holder -> holder != null && !holder.equals(userEmail));
+    }
+
+    /**
+     * Для каждого слота серии: true если хотя бы одну его ячейку удерживает другой пользователь.
+     * Один MGET на всю серию
+     *
+     * @param userEmail пользователь, свои удержания которого не мешают
+     * @param machineId машинка
+     * @param slots     слоты серии
+     * @return признак удержания другим в порядке слотов
+     */
+    public boolean[] heldByOther(String userEmail, UUID machineId, List<ReservationSeriesRequest.Slot> slots) {
+        SlotGrid grid = slotGridRegistry.gridFor(machineId);
+        List<String> keys = new ArrayList<>();
+        // номер слота серии для каждого ключа
+        int[] owner = new int[slots.size() * grid.getSlotsPerDay()];
+        for (int i = 0; i < slots.size(); i++) {
+            ReservationSeriesRequest.Slot seriesSlot = slots.get(i);
+            long mask = grid.maskOf(seriesSlot.startTime(), seriesSlot.endTime());
+            for (int slot = 0; slot < grid.getSlotsPerDay(); slot++) {
+                if ((mask & (1L << slot)) != 0) {
+                    owner[keys.size()] = i;
+                    keys.add(key(machineId, seriesSlot.resDate(), grid.startOf(slot)));
+                }
+            }
+        }
+
+        boolean[] held = new boolean[slots.size()];
+        List<String> holders = multiGet(keys);
+        for (int k = 0; k < holders.size(); k++) {
+            String holder = holders.get(k);
+            if (holder != null && !holder.equals(userEmail)) {
+                held[owner[k]] = true;
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Маски удержанных слотов машинки по дням, одним MGET на весь период
+     *
+     * @param machineId машинка
+     * @param dates     дни периода
+     * @return дата -> маска удержанных слотов (только дни, где они есть)
+     */
+    public Map<LocalDate, Long> findHeldSlots(UUID machineId, List<LocalDate> dates) {
+        return findHeldSlots(List.of(machineId), dates).getOrDefault(machineId, Collections.emptyMap());
+    }
+
+    /**
+     * Маски удержанных слотов нескольких машинок по дням, одним MGET на все машинки и весь период
+     * (на несколько, если ключей больше MAX_KEYS_PER_MGET). Период ограничивают вызывающие
+     *
+     * @param machineIds машинки
+     * @param dates      дни периода
+     * @return машинка -> (дата -> маска удержанных слотов), только машинки и дни, где они есть
+     */
+    public Map<UUID, Map<LocalDate, Long>> findHeldSlots(Collection<UUID> machineIds, List<LocalDate> dates) {
+        if (machineIds.isEmpty() || dates.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        // машинка и дата для каждого ключа, чтобы разобрать ответ MGET
+        List<String> keys = new ArrayList<>();
+        List<UUID> keyMachines = new ArrayList<>();
+        List<LocalDate> keyDates = new ArrayList<>();
+        List<Integer> keySlots = new ArrayList<>();
+        for (UUID machineId : machineIds) {
+            SlotGrid grid = slotGridRegistry.gridFor(machineId);
+            for (LocalDate date : dates) {
+                for (int slot = 0; slot < grid.getSlotsPerDay(); slot++) {
+                    keys.add(key(machineId, date, grid.startOf(slot)));
+                    keyMachines.add(machineId);
+                    keyDates.add(date);
+                    keySlots.add(slot);
+                }
+            }
+        }
+
+        List<String> holders = multiGet(keys);
+        Map<UUID, Map<LocalDate, Long>> held = new HashMap<>();
+        for (int i = 0; i < holders.size(); i++) {
+            if (holders.get(i) != null) {
+                held.computeIfAbsent(keyMachines.get(i), id -> new HashMap<>())
+                        .merge(keyDates.get(i), 1L << keySlots.get(i), (a, b) -> a | b);
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Сколько живет удержание; истечение удержания не пишет в Redis версию дня
+     */
+    public Duration getHoldTtl() {
+        return holdTtl;
+    }
+
+    /**
+     * Снимает удержание, если его держит этот пользователь
+     */
+    public void release(String userEmail, UUID machineId, LocalDate date, LocalTime start) {
+        Long released = redisTemplate.execute(RELEASE_IF_OWNER, List.of(key(machineId, date, start)), userEmail);
+        if (released != null && released > 0) {
+            resourceVersions.bumpSlotsDay(date);
+        }
+    }
+
+    /**
+     * MGET частями не больше MAX_KEYS_PER_MGET ключей; ответ в порядке ключей
+     */
+    private List<String> multiGet(List<String> keys) {
+        List<String> holders = new ArrayList<>(keys.size());
+        for (int from = 0; from < keys.size(); from += MAX_KEYS_PER_MGET) {
+            List<String> part = keys.subList(from, Math.min(keys.size(), from + MAX_KEYS_PER_MGET));
+            List<String> values = redisTemplate.opsForValue().multiGet(part);
+            if (values == null) {
+                values = Collections.nCopies(part.size(), null);
+            }
+            holders.addAll(values);
+        }
+        return holders;
+    }
+
+    private boolean isFreeInStorage(ReservationRequest request) {
+        if (occupancyIndex.canAnswer(request.machineId(), request.resDate(), request.startTime(), request.endTime())) {
+            return occupancyIndex.isFree(request.machineId(), request.resDate(), request.startTime(), request.endTime());
+        }
+
+        return !reservationRepository.existsOverlapping(
+                request.machineId(), request.resDate(), request.startTime(), request.endTime());
+    }
+
+    private void validateSingleSlot(ReservationRequest request) {
+        if (request.machineId() == null || request.resDate() == null
+                || request.startTime() == null || request.endTime() == null) {
+            throw new ApplicationException("Удерживать можно только один слот сетки", HttpStatus.BAD_REQUEST);
+        }
+
+        SlotGrid grid = slotGridRegistry.gridFor(request.machineId());
+        if (!grid.isAligned(request.startTime(), request.endTime())
+                || Long.bitCount(grid.maskOf(request.startTime(), request.endTime())) != 1) {
+            throw new ApplicationException("Удерживать можно только один слот сетки", HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    private static String key(UUID machineId, LocalDate date, LocalTime start) {
+        return KEY_PREFIX + machineId + ":" + date + ":" + start;
+    }
+}
@@ -0,0 +1,72 @@
+package com.mai.db_cw.reservation.dao;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Обслуживание месячных партиций reservations и reservation_logs
+ * через функции ensure_monthly_partition / archive_partition из миграций 004 и 008
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class PartitionRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Создает партицию parent_pYYYYMM на месяц, в который попадает дата, если ее еще нет.
+     * Строки этого месяца, успевшие попасть в DEFAULT партицию, переносятся в новую
+     *
+     * @param parent     партиционированная таблица
+     * @param monthStart любая дата месяца
+     */
+    public void ensureMonthlyPartition(String parent, LocalDate monthStart) {
+        String sql = "SELECT ensure_monthly_partition(:parent, :monthStart)";
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("parent", parent)
+                .addValue("monthStart", monthStart);
+
+        jdbcTemplate.query(sql, params, rs -> null);
+    }
+
+    /**
+     * Имена прицепленных месячных партиций таблицы (вида parent_pYYYYMM)
+     *
+     * @param parent партиционированная таблица
+     * @return имена партиций
+     */
+    public List<String> findMonthlyPartitions(String parent) {
+        String sql = "SELECT c.relname FROM pg_inherits i " +
+                "JOIN pg_class c ON c.oid = i.inhrelid " +
+                "JOIN pg_class p ON p.oid = i.inhparent " +
+                "WHERE p.relname = :parent AND c.relname ~ ('^' || :parent || '_p[0-9]{6}$') " +
+                "ORDER BY c.relname";
+
+        return jdbcTemplate.query(sql, new MapSqlParameterSource("parent", parent),
+                (rs, c) -> rs.getString("relname"));
+    }
+
+    /**
+     * Отцепляет партицию и переносит ее в схему archive
+     *
+     * @param parent        партиционированная таблица
+     * @param partitionName партиция
+     */
+    public void archivePartition(String parent, String partitionName) {
+        String sql = "SELECT archive_partition(:parent, :partitionName)";
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("parent", parent)
+                .addValue("partitionName", partitionName);
+
+        jdbcTemplate.query(sql, params, rs -> null);
+    }
+}
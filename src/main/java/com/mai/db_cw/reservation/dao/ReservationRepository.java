@@ -4,18 +4,23 @@ import com.mai.db_cw.config.infrastructure.operation_storage.OperationStorage;
 import com.mai.db_cw.machines.dto.ReservationLog;
 import com.mai.db_cw.reservation.Reservation;
 import com.mai.db_cw.reservation.dto.ReservationUserResponse;
+import com.mai.db_cw.reservation.event.ReservationChangedEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import java.sql.Statement;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.*;
 
@@ -40,7 +45,49 @@ public class ReservationRepository {
             .creationTime(rs.getTimestamp("creation_time").toLocalDateTime())
             .modifiedTime(rs.getTimestamp("modified_time").toLocalDateTime())
             .build();
+
+    /**
+     * Маппер записи reservation_logs
+     */
+    static final RowMapper<ReservationLog> reservationLogRowMapper = (rs, c) -> ReservationLog.builder()
+            .action(rs.getString("action"))
+            .reservationId(UUID.fromString(rs.getString("reservation_id")))
+            .oldData(rs.getString("old_data") != null ? rs.getString("old_data") : "")
+            .newData(rs.getString("new_data") != null ? rs.getString("new_data") : "")
+            .timestamp(rs.getTimestamp("action_time").toLocalDateTime())
+            .build();
+
+    /**
+     * Брони пользователя с машинкой и общежитием, новые первыми
+     */
+    static final String USER_RESERVATIONS_SQL = """
+                SELECT
+                    r.id AS reservation_id,
+                    m.id AS machine_id,
+                    m.name AS machine_name,
+                    d.name AS dormitory_name,
+                    r.res_date,
+                    r.start_time,
+                    r.end_time,
+                    r.status,
+                    r.creation_time,
+                    r.modified_time
+                FROM
+                    reservations r
+                JOIN
+                    machines m ON r.machine_id = m.id
+                JOIN
+                    dormitories d ON m.dormitory_id = d.id
+                WHERE
+                    r.user_id = :userId
+                ORDER BY
+                    r.res_date DESC,
+                    r.start_time DESC,
+                    r.creation_time DESC
+                """;
+
     private final OperationStorage operationStorage;
+    private final ApplicationEventPublisher eventPublisher;
 
     /**
      * Поиск всех бронирований пользователя
@@ -77,6 +124,66 @@ public class ReservationRepository {
                 .addValue("modifiedTime", reservation.getModifiedTime());
 
         jdbcTemplate.update(sql, params);
+        eventPublisher.publishEvent(ReservationChangedEvent.created(reservation));
+    }
+
+    /**
+     * Пакетная вставка бронирований одним batchUpdate.
+     * Конфликтующие строки (уникальный ключ или пересечение по exclusion-констрейнту)
+     * пропускаются (ON CONFLICT DO NOTHING), поэтому одна
+     * занятая бронь не валит весь пакет. Должен вызываться внутри транзакции
+     *
+     * @param reservations список бронирований
+     * @return количество вставленных строк по каждой брони (0 - конфликт)
+     */
+    public int[] saveAllSkippingConflicts(List<Reservation> reservations) {
+        String sql = "INSERT INTO reservations " +
+                "(id, user_id, machine_id, res_date, start_time, end_time, status, creation_time, modified_time) " +
+                "VALUES (:id, :userId, :machineId, :resDate, :startTime, :endTime, :status, :creationTime, :modifiedTime) " +
+                "ON CONFLICT DO NOTHING";
+
+        SqlParameterSource[] batch = reservations.stream()
+                .map(reservation -> new MapSqlParameterSource()
+                        .addValue("id", reservation.getId())
+                        .addValue("userId", reservation.getUserId())
+                        .addValue("machineId", reservation.getMachineId())
+                        .addValue("resDate", reservation.getResDate())
+                        .addValue("startTime", reservation.getStartTime())
+                        .addValue("endTime", reservation.getEndTime())
+                        .addValue("status", reservation.getStatus())
+                        .addValue("creationTime", reservation.getCreationTime())
+                        .addValue("modifiedTime", reservation.getModifiedTime()))
+                .toArray(SqlParameterSource[]::new);
+
+        int[] counts = jdbcTemplate.batchUpdate(sql, batch);
+        if (Arrays.stream(counts).anyMatch(count -> count == Statement.SUCCESS_NO_INFO)) {
+            // драйвер переписал батч и не вернул счетчики по строкам, уточняем по id
+            counts = countExisting(reservations);
+        }
+
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                eventPublisher.publishEvent(ReservationChangedEvent.created(reservations.get(i)));
+            }
+        }
+
+        return counts;
+    }
+
+    private int[] countExisting(List<Reservation> reservations) {
+        // границы по res_date нужны, чтобы планировщик отсек лишние партиции
+        String sql = "SELECT id FROM reservations WHERE id IN (:ids) AND res_date BETWEEN :fromDate AND :toDate";
+        List<UUID> ids = reservations.stream().map(Reservation::getId).toList();
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("ids", ids)
+                .addValue("fromDate", reservations.stream().map(Reservation::getResDate).min(LocalDate::compareTo).orElseThrow())
+                .addValue("toDate", reservations.stream().map(Reservation::getResDate).max(LocalDate::compareTo).orElseThrow());
+        Set<UUID> existing = new HashSet<>(jdbcTemplate.query(sql, params,
+                (rs, c) -> rs.getObject("id", UUID.class)));
+
+        return ids.stream()
+                .mapToInt(id -> existing.contains(id) ? 1 : 0)
+                .toArray();
     }
 
     /**
@@ -119,31 +226,7 @@ public class ReservationRepository {
      */
     @Transactional
     public List<ReservationUserResponse> findAllReservationsByUserId(UUID userId) {
-        String sql = """
-                SELECT 
-                    r.id AS reservation_id,
-                    m.id AS machine_id,
-                    m.name AS machine_name,
-                    d.name AS dormitory_name,
-                    r.res_date,
-                    r.start_time,
-                    r.end_time,
-                    r.status,
-                    r.creation_time,
-                    r.modified_time
-                FROM 
-                    reservations r
-                JOIN 
-                    machines m ON r.machine_id = m.id
-                JOIN 
-                    dormitories d ON m.dormitory_id = d.id
-                WHERE 
-                    r.user_id = :userId
-                ORDER BY 
-                    r.res_date DESC,
-                    r.start_time DESC,
-                    r.creation_time DESC
-                """;
+        String sql = USER_RESERVATIONS_SQL;
 
         MapSqlParameterSource params = new MapSqlParameterSource();
         params.addValue("userId", userId);
@@ -173,18 +256,66 @@ public class ReservationRepository {
         return jdbcTemplate.query(sql, params, reservationRowMapper);
     }
 
+    /**
+     * Проверка пересечения интервала с бронями машинки.
+     * Использует GiST индекс exclusion-констрейнта по (machine_id, time_range)
+     *
+     * @param machineId UUID идентификатор машинки
+     * @param resDate   дата брони
+     * @param startTime начало интервала
+     * @param endTime   конец интервала
+     * @return true если есть пересекающаяся бронь
+     */
+    public boolean existsOverlapping(UUID machineId, LocalDate resDate, LocalTime startTime, LocalTime endTime) {
+        String sql = "SELECT EXISTS (SELECT 1 FROM reservations " +
+                "WHERE machine_id = :machineId " +
+                "AND res_date = :resDate " +
+                "AND time_range && tsrange(:rangeStart, :rangeEnd, '[)'))";
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("machineId", machineId)
+                .addValue("resDate", resDate)
+                .addValue("rangeStart", LocalDateTime.of(resDate, startTime))
+                .addValue("rangeEnd", LocalDateTime.of(resDate, endTime));
+
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(sql, params, Boolean.class));
+    }
+
+    /**
+     * Все бронирования начиная с даты, используется для прогрева индекса занятости
+     *
+     * @param fromDate начальная дата
+     * @return список бронирований
+     */
+    public List<Reservation> findAllFromDate(LocalDate fromDate) {
+        String sql = "SELECT * FROM reservations WHERE res_date >= :fromDate";
+        MapSqlParameterSource params = new MapSqlParameterSource("fromDate", fromDate);
+
+        return jdbcTemplate.query(sql, params, reservationRowMapper);
+    }
+
+    /**
+     * Все бронирования за период, используется для сверки индекса занятости
+     *
+     * @param startDate начальная дата
+     * @param endDate   конечная дата включительно
+     * @return список бронирований
+     */
+    public List<Reservation> findAllInPeriod(LocalDate startDate, LocalDate endDate) {
+        String sql = "SELECT * FROM reservations WHERE res_date >= :startDate AND res_date <= :endDate";
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("startDate", startDate)
+                .addValue("endDate", endDate);
+
+        return jdbcTemplate.query(sql, params, reservationRowMapper);
+    }
+
     public List<ReservationLog> findReservationLogs(long limit) {
         String sql = "SELECT * FROM reservation_logs ORDER BY action_time DESC LIMIT :limit";
         MapSqlParameterSource params = new MapSqlParameterSource()
                 .addValue("limit", limit);
 
-        List<ReservationLog> query = jdbcTemplate.query(sql, params, (rs, c) -> ReservationLog.builder()
-                .action(rs.getString("action"))
-                .reservationId(UUID.fromString(rs.getString("reservation_id")))
-                .oldData(rs.getString("old_data") != null ? rs.getString("old_data") : "")
-                .newData(rs.getString("new_data") != null ? rs.getString("new_data") : "")
-                .timestamp(rs.getTimestamp("action_time").toLocalDateTime())
-                .build());
+        List<ReservationLog> query = jdbcTemplate.query(sql, params, reservationLogRowMapper);
 
         if (query.isEmpty()) {
             return Collections.emptyList();
@@ -194,22 +325,35 @@ public class ReservationRepository {
     }
 
 
+    /**
+     * Асинхронно удаляет бронь, результат пишется в отдельную операцию удаления
+     *
+     * @param reservationId бронь
+     * @param operationId   операция удаления
+     */
     @Async
-    public void deleteReservationById(UUID reservationId) {
+    public void deleteReservationById(UUID reservationId, UUID operationId) {
         try {
-            String sql = "delete from reservations where id = :id";
+            String sql = "delete from reservations where id = :id " +
+                    "returning machine_id, res_date, start_time, end_time";
 
             MapSqlParameterSource params = new MapSqlParameterSource()
                     .addValue("id", reservationId);
 
-            jdbcTemplate.update(sql, params);
-            operationStorage.successfully(reservationId);
+            jdbcTemplate.query(sql, params, (rs, c) -> ReservationChangedEvent.deleted(
+                            reservationId,
+                            rs.getObject("machine_id", UUID.class),
+                            rs.getDate("res_date").toLocalDate(),
+                            rs.getObject("start_time", LocalTime.class),
+                            rs.getObject("end_time", LocalTime.class)))
+                    .forEach(eventPublisher::publishEvent);
+            operationStorage.successfully(operationId);
         } catch (ApplicationException e) {
-            operationStorage.failOperation(reservationId, e.getMessage(), e.getHttpStatus());
+            operationStorage.failOperation(operationId, e.getMessage(), e.getHttpStatus());
         } catch (DataIntegrityViolationException e) {
-            operationStorage.failOperation(reservationId, e.getMessage(), HttpStatus.CONFLICT);
+            operationStorage.failOperation(operationId, e.getMessage(), HttpStatus.CONFLICT);
         } catch (RuntimeException e) {
-            operationStorage.failOperation(reservationId, e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            operationStorage.failOperation(operationId, e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
@@ -218,10 +362,149 @@ public class ReservationRepository {
         return jdbcTemplate.query(sql, Collections.emptyMap(), (rs, c) -> rs.getInt("cnt")).stream().findFirst().orElse(0);
     }
 
-    public List<Reservation> findAll() {
-        String sql = "select * from reservations where status like '%ACTIVE%' or status like '%PENDING% " +
-                "order by creation_time desc'";
-        return jdbcTemplate.query(sql, reservationRowMapper);
+    /**
+     * Переводит в FINISHED все незавершенные брони, время окончания которых уже наступило.
+     * Одним UPDATE по частичному индексу reservations_open_by_end
+     *
+     * @param now текущее время
+     * @return количество обновленных строк
+     */
+    public int finishElapsed(LocalDateTime now) {
+        String sql = "UPDATE reservations " +
+                "SET status = 'FINISHED', modified_time = :now " +
+                "WHERE status IN ('PENDING', 'ACTIVE') " +
+                "AND (res_date < :today OR (res_date = :today AND end_time <= :time))";
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("now", now)
+                .addValue("today", now.toLocalDate())
+                .addValue("time", now.toLocalTime());
+
+        return jdbcTemplate.update(sql, params);
+    }
+
+    /**
+     * Переводит в ACTIVE брони в статусе PENDING, которые идут прямо сейчас.
+     * Одним UPDATE по частичному индексу reservations_pending_by_start
+     *
+     * @param now текущее время
+     * @return количество обновленных строк
+     */
+    public int activateStarted(LocalDateTime now) {
+        String sql = "UPDATE reservations " +
+                "SET status = 'ACTIVE', modified_time = :now " +
+                "WHERE status = 'PENDING' " +
+                "AND res_date = :today AND start_time <= :time AND end_time > :time";
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("now", now)
+                .addValue("today", now.toLocalDate())
+                .addValue("time", now.toLocalTime());
+
+        return jdbcTemplate.update(sql, params);
+    }
+
+    /**
+     * Переводит в FINISHED незавершенные брони дня, окончание которых попало в окно (fromTime, toTime]
+     *
+     * @param day      день окна
+     * @param fromTime начало окна (не включительно)
+     * @param toTime   конец окна включительно, null - до конца дня
+     * @param now      время изменения
+     * @return количество обновленных строк
+     */
+    public int finishEndedInWindow(LocalDate day, LocalTime fromTime, LocalTime toTime, LocalDateTime now) {
+        String sql = "UPDATE reservations " +
+                "SET status = 'FINISHED', modified_time = :now " +
+                "WHERE status IN ('PENDING', 'ACTIVE') " +
+                "AND res_date = :day AND end_time > :fromTime" +
+                (toTime != null ? " AND end_time <= :toTime" : "");
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("now", now)
+                .addValue("day", day)
+                .addValue("fromTime", fromTime)
+                .addValue("toTime", toTime);
+
+        return jdbcTemplate.update(sql, params);
+    }
+
+    /**
+     * Переводит в ACTIVE брони дня в статусе PENDING, начало которых попало в окно (fromTime, toTime],
+     * а окончание - позже окна
+     *
+     * @param day      день окна
+     * @param fromTime начало окна (не включительно)
+     * @param toTime   конец окна включительно
+     * @param now      время изменения
+     * @return количество обновленных строк
+     */
+    public int activateStartedInWindow(LocalDate day, LocalTime fromTime, LocalTime toTime, LocalDateTime now) {
+        String sql = "UPDATE reservations " +
+                "SET status = 'ACTIVE', modified_time = :now " +
+                "WHERE status = 'PENDING' " +
+                "AND res_date = :day AND start_time > :fromTime AND start_time <= :toTime AND end_time > :toTime";
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("now", now)
+                .addValue("day", day)
+                .addValue("fromTime", fromTime)
+                .addValue("toTime", toTime);
+
+        return jdbcTemplate.update(sql, params);
+    }
+
+    /**
+     * Страница незавершенных (PENDING/ACTIVE) броней, keyset-пагинация по (res_date, id)
+     *
+     * @param afterDate дата последней брони предыдущей страницы
+     * @param afterId   id последней брони предыдущей страницы
+     * @param limit     размер страницы
+     * @return брони, упорядоченные по (res_date, id)
+     */
+    public List<Reservation> findOpenPage(LocalDate afterDate, UUID afterId, int limit) {
+        String sql = "SELECT * FROM reservations " +
+                "WHERE status IN ('PENDING', 'ACTIVE') " +
+                "AND (res_date, id) > (:afterDate, :afterId) " +
+                "ORDER BY res_date, id " +
+                "LIMIT :limit";
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("afterDate", afterDate)
+                .addValue("afterId", afterId)
+                .addValue("limit", limit);
+
+        return jdbcTemplate.query(sql, params, reservationRowMapper);
+    }
+
+    /**
+     * Условный перевод пачки броней в статус: строка обновляется, только если
+     * она еще в одном из ожидаемых статусов (удаленные и уже переведенные пропускаются)
+     *
+     * @param ids            брони
+     * @param fromDate       минимальная res_date среди броней (для отсечения партиций)
+     * @param toDate         максимальная res_date среди броней
+     * @param fromStatuses   ожидаемые текущие статусы
+     * @param targetStatus   новый статус
+     * @param now            время изменения
+     * @return количество обновленных строк
+     */
+    public int transitionStatus(Collection<UUID> ids, LocalDate fromDate, LocalDate toDate,
+                                Collection<String> fromStatuses, String targetStatus, LocalDateTime now) {
+        String sql = "UPDATE reservations " +
+                "SET status = :targetStatus, modified_time = :now " +
+                "WHERE id IN (:ids) AND res_date BETWEEN :fromDate AND :toDate " +
+                "AND status IN (:fromStatuses)";
+
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("ids", ids)
+                .addValue("fromDate", fromDate)
+                .addValue("toDate", toDate)
+                .addValue("fromStatuses", fromStatuses)
+                .addValue("targetStatus", targetStatus)
+                .addValue("now", now);
+
+        return jdbcTemplate.update(sql, params);
     }
 
     /**
@@ -233,10 +516,11 @@ public class ReservationRepository {
         String sql = "UPDATE reservations " +
                 "SET status = :status, " +
                 "modified_time = :modifiedTime " +
-                "WHERE id = :id";
+                "WHERE id = :id AND res_date = :resDate";
 
         MapSqlParameterSource params = new MapSqlParameterSource()
                 .addValue("id", reservation.getId())
+                .addValue("resDate", reservation.getResDate())
                 .addValue("status", reservation.getStatus())
                 .addValue("modifiedTime", reservation.getModifiedTime());
 
@@ -0,0 +1,90 @@
+package com.mai.db_cw.reservation.dao;
+
+import com.mai.db_cw.machines.dto.ReservationLog;
+import com.mai.db_cw.reservation.dto.ReservationUserResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * <p>Потоковое чтение длинных выборок: строки передаются в приемник по одной,
+ * не собираясь в список</p>
+ * <p>Postgres отдает строки порциями по fetch-size только внутри транзакции
+ * (иначе драйвер читает весь результат в память), поэтому методы транзакционные</p>
+ * <p>Транзакция ограничена по времени: statement_timeout и
+ * idle_in_transaction_session_timeout на стороне БД (медленный клиент не держит
+ * соединение бесконечно) и общий срок выгрузки, который проверяется на каждой строке</p>
+ */
+@Repository
+public class ReservationStreamRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final Duration maxDuration;
+    private final Duration idleTimeout;
+
+    public ReservationStreamRepository(
+            DataSource dataSource,
+            @Value("${reservations.stream.fetch-size:500}") int fetchSize,
+            @Value("${reservations.stream.max-duration:PT5M}") Duration maxDuration,
+            @Value("${reservations.stream.idle-timeout:PT30S}") Duration idleTimeout) {
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.setFetchSize(fetchSize);
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(template);
+        this.maxDuration = maxDuration;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Все брони пользователя в порядке {@link ReservationRepository#findAllReservationsByUserId}
+     *
+     * @param userId UUID идентификатор пользователя
+     * @param sink   приемник строк
+     */
+    @Transactional(readOnly = true)
+    public void streamReservationsByUserId(UUID userId, Consumer<ReservationUserResponse> sink) {
+        MapSqlParameterSource params = new MapSqlParameterSource("userId", userId);
+
+        stream(ReservationRepository.USER_RESERVATIONS_SQL, params, new ReservationUserResponseRowMapper(), sink);
+    }
+
+    /**
+     * Логи бронирований, новые первыми
+     *
+     * @param limit количество последних логов, null - вся история
+     * @param sink  приемник строк
+     */
+    @Transactional(readOnly = true)
+    public void streamReservationLogs(Long limit, Consumer<ReservationLog> sink) {
+        String sql = "SELECT * FROM reservation_logs ORDER BY action_time DESC"
+                + (limit != null ? " LIMIT :limit" : "");
+        MapSqlParameterSource params = new MapSqlParameterSource("limit", limit);
+
+        stream(sql, params, ReservationRepository.reservationLogRowMapper, sink);
+    }
+
+    private <T> void stream(String sql, MapSqlParameterSource params, RowMapper<T> rowMapper, Consumer<T> sink) {
+        // SET LOCAL действует до конца текущей транзакции и не остается на соединении в пуле
+        JdbcTemplate template = jdbcTemplate.getJdbcTemplate();
+        template.execute("SET LOCAL statement_timeout = " + maxDuration.toMillis());
+        template.execute("SET LOCAL idle_in_transaction_session_timeout = " + idleTimeout.toMillis());
+
+        long deadline = System.nanoTime() + maxDuration.toNanos();
+        int[] rowNum = {0};
+        jdbcTemplate.query(sql, params, rs -> {
+            if (System.nanoTime() - deadline > 0) {
+                throw new QueryTimeoutException("Выгрузка не уложилась в " + maxDuration);
+            }
+            sink.accept(rowMapper.mapRow(rs, rowNum[0]++));
+        });
+    }
+}
@@ -0,0 +1,61 @@
+package com.mai.db_cw.reservation.dto;
+
+import com.mai.db_cw.config.infrastructure.exceptions.ApplicationException;
+import org.springframework.http.HttpStatus;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * Запрос на серию бронирований одной машинки.
+ * Слоты задаются либо явным списком slots, либо еженедельным повтором:
+ * firstDate + startTime/endTime на weeks недель (например, каждый вторник 18:00 на 8 недель)
+ */
+public record ReservationSeriesRequest(
+        UUID machineId,
+        List<Slot> slots,
+        LocalDate firstDate,
+        LocalTime startTime,
+        LocalTime endTime,
+        Integer weeks) {
+
+    public static final int MAX_SLOTS = 52;
+
+    public record Slot(LocalDate resDate, LocalTime startTime, LocalTime endTime) {
+    }
+
+    /**
+     * Разворачивает запрос в список слотов
+     *
+     * @return слоты серии в порядке запроса
+     */
+    public List<Slot> expand() {
+        List<Slot> expanded;
+        if (slots != null && !slots.isEmpty()) {
+            expanded = slots;
+        } else if (firstDate != null && startTime != null && endTime != null && weeks != null && weeks > 0) {
+            expanded = IntStream.range(0, weeks)
+                    .mapToObj(week -> new Slot(firstDate.plusWeeks(week), startTime, endTime))
+                    .toList();
+        } else {
+            throw new ApplicationException("Нужно указать либо slots, либо firstDate, startTime, endTime и weeks", HttpStatus.BAD_REQUEST);
+        }
+
+        if (expanded.size() > MAX_SLOTS) {
+            throw new ApplicationException("Слишком много слотов в серии, максимум " + MAX_SLOTS, HttpStatus.BAD_REQUEST);
+        }
+
+        boolean invalid = expanded.stream().anyMatch(slot -> slot.resDate() == null
+                || slot.startTime() == null
+                || slot.endTime() == null
+                || !slot.startTime().isBefore(slot.endTime()));
+        if (invalid) {
+            throw new ApplicationException("Некорректный слот в серии", HttpStatus.BAD_REQUEST);
+        }
+
+        return expanded;
+    }
+}
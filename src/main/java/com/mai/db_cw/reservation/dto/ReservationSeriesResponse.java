@@ -0,0 +1,47 @@
+package com.mai.db_cw.reservation.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Результат серии бронирований с результатом по каждому слоту
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReservationSeriesResponse {
+
+    private UUID operationId;
+    private UUID machineId;
+    private List<SlotResult> slots;
+
+    public enum SlotStatus {
+        BOOKED,
+        CONFLICT,
+        /**
+         * слот удерживается другим пользователем (двухфазное бронирование)
+         */
+        HELD,
+        REJECTED
+    }
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class SlotResult {
+        private UUID reservationId;
+        private LocalDate resDate;
+        private LocalTime startTime;
+        private LocalTime endTime;
+        private SlotStatus status;
+    }
+}
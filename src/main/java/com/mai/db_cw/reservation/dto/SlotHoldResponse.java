@@ -0,0 +1,27 @@
+package com.mai.db_cw.reservation.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.UUID;
+
+/**
+ * Информация об удержании слота
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SlotHoldResponse {
+
+    private UUID machineId;
+    private LocalDate resDate;
+    private LocalTime startTime;
+    private LocalTime endTime;
+    private LocalDateTime expiresAt;
+}
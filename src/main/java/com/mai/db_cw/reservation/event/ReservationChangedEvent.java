@@ -0,0 +1,40 @@
+package com.mai.db_cw.reservation.event;
+
+import com.mai.db_cw.reservation.Reservation;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.UUID;
+
+/**
+ * Событие об изменении бронирования, публикуется репозиторием после записи в БД.
+ * Слушатели (индексы, кеши) обновляют по нему только затронутые (машинка, день)
+ */
+public record ReservationChangedEvent(
+        Type type,
+        UUID reservationId,
+        UUID machineId,
+        LocalDate resDate,
+        LocalTime startTime,
+        LocalTime endTime) {
+
+    public enum Type {
+        CREATED,
+        DELETED
+    }
+
+    public static ReservationChangedEvent created(Reservation reservation) {
+        return new ReservationChangedEvent(
+                Type.CREATED,
+                reservation.getId(),
+                reservation.getMachineId(),
+                reservation.getResDate(),
+                reservation.getStartTime(),
+                reservation.getEndTime());
+    }
+
+    public static ReservationChangedEvent deleted(UUID reservationId, UUID machineId, LocalDate resDate,
+                                                  LocalTime startTime, LocalTime endTime) {
+        return new ReservationChangedEvent(Type.DELETED, reservationId, machineId, resDate, startTime, endTime);
+    }
+}
@@ -0,0 +1,21 @@
+-- 002_reservation_time_range.sql
+-- Liquibase formatted SQL file
+
+-- Liquibase ChangeSet
+-- Эта миграция добавляет в reservations диапазон времени брони (tsrange)
+-- и exclusion-констрейнт на него: Postgres сам атомарно отклоняет
+-- пересекающиеся брони одной машинки, а не только полностью совпадающие
+-- (раньше гарантией был только UNIQUE (machine_id, res_date, start_time, end_time))
+-- GiST индекс констрейнта используется и для запроса пересечений в ReservationRepository
+
+
+-- changeset admin:002 reservationTimeRange
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+ALTER TABLE reservations
+    ADD COLUMN IF NOT EXISTS time_range TSRANGE
+        GENERATED ALWAYS AS (tsrange(res_date + start_time, res_date + end_time, '[)')) STORED;
+
+ALTER TABLE reservations
+    ADD CONSTRAINT reservations_no_overlap
+        EXCLUDE USING gist (machine_id WITH =, time_range WITH &&);
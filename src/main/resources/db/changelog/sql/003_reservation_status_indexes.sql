@@ -0,0 +1,17 @@
+-- 003_reservation_status_indexes.sql
+-- Liquibase formatted SQL file
+
+-- Liquibase ChangeSet
+-- Частичные индексы для перевода статусов броней двумя UPDATE на множество строк
+-- (ReservationService.updateBookingStatuses): индексы покрывают только
+-- незавершенные брони, поэтому не растут вместе с историей FINISHED
+
+
+-- changeset admin:003 reservationStatusIndexes
+CREATE INDEX IF NOT EXISTS reservations_open_by_end
+    ON reservations (res_date, end_time)
+    WHERE status IN ('PENDING', 'ACTIVE');
+
+CREATE INDEX IF NOT EXISTS reservations_pending_by_start
+    ON reservations (res_date, start_time)
+    WHERE status = 'PENDING';
@@ -0,0 +1,136 @@
+-- 004_reservation_partitioning.sql
+-- Liquibase formatted SQL file
+
+-- Liquibase ChangeSet
+-- Эта миграция переводит reservations и reservation_logs на декларативное
+-- партиционирование по диапазону дат (помесячно):
+-- 1) reservations партиционируется по res_date, reservation_logs - по action_time
+-- 2) первичные ключи включают ключ партиционирования: (id, res_date) и (id, action_time)
+-- 3) exclusion-констрейнт включает res_date WITH = (бронь всегда в пределах одного дня,
+--    поэтому смысл не меняется), это нужно для констрейнта на партиционированной таблице (Postgres 17+)
+-- 4) функции ensure_monthly_partition / archive_partition используются и здесь,
+--    и джобой ReservationPartitionMaintenance, которая заранее создает будущие партиции
+--    и отцепляет старые в схему archive
+-- Данные переносятся из старых таблиц, триггеры логирования вешаются после переноса
+
+
+-- changeset admin:004 reservationPartitioning
+CREATE SCHEMA IF NOT EXISTS archive;
+
+-- Создает месячную партицию parent_pYYYYMM, если ее еще нет
+CREATE OR REPLACE FUNCTION ensure_monthly_partition(parent TEXT, month_start DATE)
+RETURNS VOID AS $$
+DECLARE
+    from_date DATE := date_trunc('month', month_start)::date;
+    to_date   DATE := (date_trunc('month', month_start) + INTERVAL '1 month')::date;
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                   parent || '_p' || to_char(from_date, 'YYYYMM'), parent, from_date, to_date);
+END;
+$$ LANGUAGE plpgsql;
+
+-- Отцепляет партицию и переносит ее в схему archive
+CREATE OR REPLACE FUNCTION archive_partition(parent TEXT, partition_name TEXT)
+RETURNS VOID AS $$
+BEGIN
+    EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', parent, partition_name);
+    EXECUTE format('ALTER TABLE %I SET SCHEMA archive', partition_name);
+END;
+$$ LANGUAGE plpgsql;
+
+-- reservations
+DROP TRIGGER IF EXISTS tr_reservation_insert ON reservations;
+DROP TRIGGER IF EXISTS tr_reservation_update ON reservations;
+DROP TRIGGER IF EXISTS tr_reservation_delete ON reservations;
+DROP INDEX IF EXISTS reservations_open_by_end;
+DROP INDEX IF EXISTS reservations_pending_by_start;
+ALTER TABLE reservations DROP CONSTRAINT IF EXISTS reservations_no_overlap;
+ALTER TABLE reservations DROP CONSTRAINT IF EXISTS reservations_machine_id_res_date_start_time_end_time_key;
+ALTER TABLE reservations DROP CONSTRAINT IF EXISTS reservations_pkey;
+ALTER TABLE reservations RENAME TO reservations_legacy;
+
+CREATE TABLE reservations (
+    id            UUID NOT NULL DEFAULT gen_random_uuid(),
+    user_id       UUID NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    machine_id    UUID NOT NULL REFERENCES machines(id) ON DELETE CASCADE,
+    res_date      DATE NOT NULL,
+    start_time    TIME NOT NULL,
+    end_time      TIME NOT NULL,
+    status        VARCHAR(50) NOT NULL DEFAULT 'PENDING',
+    creation_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    modified_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    time_range    TSRANGE GENERATED ALWAYS AS (tsrange(res_date + start_time, res_date + end_time, '[)')) STORED,
+    PRIMARY KEY (id, res_date),
+    UNIQUE (machine_id, res_date, start_time, end_time),
+    CONSTRAINT reservations_no_overlap
+        EXCLUDE USING gist (machine_id WITH =, res_date WITH =, time_range WITH &&)
+) PARTITION BY RANGE (res_date);
+
+CREATE TABLE reservations_default PARTITION OF reservations DEFAULT;
+
+CREATE INDEX reservations_user_id ON reservations (user_id);
+CREATE INDEX reservations_open_by_end
+    ON reservations (res_date, end_time)
+    WHERE status IN ('PENDING', 'ACTIVE');
+CREATE INDEX reservations_pending_by_start
+    ON reservations (res_date, start_time)
+    WHERE status = 'PENDING';
+
+-- партиции от самой ранней брони до трех месяцев вперед
+SELECT ensure_monthly_partition('reservations', month_start::date)
+FROM generate_series(
+        date_trunc('month', COALESCE((SELECT min(res_date) FROM reservations_legacy), CURRENT_DATE)::timestamp),
+        date_trunc('month', LOCALTIMESTAMP) + INTERVAL '3 months',
+        INTERVAL '1 month') AS month_start;
+
+INSERT INTO reservations (id, user_id, machine_id, res_date, start_time, end_time, status, creation_time, modified_time)
+SELECT id, user_id, machine_id, res_date, start_time, end_time, status, creation_time, modified_time
+FROM reservations_legacy;
+
+DROP TABLE reservations_legacy;
+
+-- reservation_logs
+ALTER TABLE reservation_logs RENAME TO reservation_logs_legacy;
+ALTER TABLE reservation_logs_legacy DROP CONSTRAINT IF EXISTS reservation_logs_pkey;
+
+CREATE TABLE reservation_logs (
+    id              UUID NOT NULL DEFAULT gen_random_uuid(),
+    reservation_id  UUID,
+    action          TEXT NOT NULL,  -- Тип действия (INSERT, UPDATE, DELETE)
+    old_data        JSONB,  -- Старые данные (для UPDATE и DELETE)
+    new_data        JSONB,  -- Новые данные (для INSERT и UPDATE)
+    action_time     TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id, action_time)
+) PARTITION BY RANGE (action_time);
+
+CREATE TABLE reservation_logs_default PARTITION OF reservation_logs DEFAULT;
+
+CREATE INDEX reservation_logs_action_time ON reservation_logs (action_time DESC);
+
+SELECT ensure_monthly_partition('reservation_logs', month_start::date)
+FROM generate_series(
+        date_trunc('month', COALESCE((SELECT min(action_time) FROM reservation_logs_legacy), LOCALTIMESTAMP)),
+        date_trunc('month', LOCALTIMESTAMP) + INTERVAL '3 months',
+        INTERVAL '1 month') AS month_start;
+
+INSERT INTO reservation_logs (id, reservation_id, action, old_data, new_data, action_time)
+SELECT id, reservation_id, action, old_data, new_data, COALESCE(action_time, LOCALTIMESTAMP)
+FROM reservation_logs_legacy;
+
+DROP TABLE reservation_logs_legacy;
+
+-- триггеры логирования на новой таблице
+CREATE TRIGGER tr_reservation_insert
+    AFTER INSERT ON reservations
+    FOR EACH ROW
+    EXECUTE PROCEDURE log_reservation_changes();
+
+CREATE TRIGGER tr_reservation_update
+    AFTER UPDATE ON reservations
+    FOR EACH ROW
+    EXECUTE PROCEDURE log_reservation_changes();
+
+CREATE TRIGGER tr_reservation_delete
+    AFTER DELETE ON reservations
+    FOR EACH ROW
+    EXECUTE PROCEDURE log_reservation_changes();
@@ -0,0 +1,15 @@
+-- 005_scheduled_job_runs.sql
+-- Liquibase formatted SQL file
+
+-- Liquibase ChangeSet
+-- Таблица последних запусков @Scheduled джоб (ScheduledJobLock):
+-- вместе с pg_try_advisory_xact_lock гарантирует, что в каждый тик
+-- джоба выполняется только на одном узле кластера
+
+
+-- changeset admin:005 scheduledJobRuns
+CREATE TABLE IF NOT EXISTS scheduled_job_runs (
+    job_name        VARCHAR(100) PRIMARY KEY,
+    last_started_at TIMESTAMPTZ NOT NULL,
+    node_name       VARCHAR(255)
+);
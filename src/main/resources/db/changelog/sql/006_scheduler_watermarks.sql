@@ -0,0 +1,14 @@
+-- 006_scheduler_watermarks.sql
+-- Liquibase formatted SQL file
+
+-- Liquibase ChangeSet
+-- Водяные знаки инкрементальных джоб: до какого момента джоба уже обработала
+-- события (например, начала и окончания броней для перевода статусов)
+
+
+-- changeset admin:006 schedulerWatermarks
+CREATE TABLE IF NOT EXISTS scheduler_watermarks (
+    job_name      VARCHAR(100) PRIMARY KEY,
+    watermark     TIMESTAMP NOT NULL,
+    modified_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
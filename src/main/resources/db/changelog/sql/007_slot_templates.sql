@@ -0,0 +1,36 @@
+-- 007_slot_templates.sql
+-- Liquibase formatted SQL file
+
+-- Liquibase ChangeSet
+-- Шаблоны сетки слотов: часы работы и длительность слота для типа машинки.
+-- Шаблон с dormitory_id переопределяет общий шаблон типа для конкретного общежития.
+-- Начальные шаблоны повторяют прежнюю захардкоженную сетку 08:00-17:00 с шагом 1 час
+
+
+-- changeset admin:007 slotTemplates
+CREATE TABLE IF NOT EXISTS slot_templates (
+    id              SERIAL PRIMARY KEY,
+    machine_type_id INT NOT NULL REFERENCES machine_types(id) ON DELETE CASCADE,
+    dormitory_id    UUID REFERENCES dormitories(id) ON DELETE CASCADE,
+    open_time       TIME NOT NULL,
+    close_time      TIME NOT NULL,
+    slot_minutes    INT NOT NULL,
+    creation_time   TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    modified_time   TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT slot_templates_valid_hours CHECK (open_time < close_time),
+    CONSTRAINT slot_templates_valid_duration CHECK (slot_minutes > 0)
+);
+
+-- один общий шаблон на тип и не больше одного переопределения на (тип, общежитие)
+CREATE UNIQUE INDEX IF NOT EXISTS slot_templates_type_default
+    ON slot_templates (machine_type_id)
+    WHERE dormitory_id IS NULL;
+CREATE UNIQUE INDEX IF NOT EXISTS slot_templates_type_dormitory
+    ON slot_templates (machine_type_id, dormitory_id)
+    WHERE dormitory_id IS NOT NULL;
+
+INSERT INTO slot_templates (machine_type_id, open_time, close_time, slot_minutes)
+SELECT id, TIME '08:00', TIME '17:00', 60
+FROM machine_types
+WHERE name IN ('WASHER', 'DRYER')
+ON CONFLICT DO NOTHING;
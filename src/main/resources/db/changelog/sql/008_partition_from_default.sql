@@ -0,0 +1,67 @@
+-- 008_partition_from_default.sql
+-- Liquibase formatted SQL file
+
+-- Liquibase ChangeSet
+-- Брони дальше горизонта заранее созданных партиций (серии на год вперед, одиночные
+-- брони без ограничения даты) попадают в DEFAULT партицию. Раньше, когда джоба доходила
+-- до такого месяца, CREATE TABLE ... PARTITION OF падал с
+-- "updated partition constraint for default partition would be violated" каждую ночь.
+-- Теперь ensure_monthly_partition переносит строки месяца из DEFAULT:
+-- 1) DEFAULT отцепляется (вместе с ней снимаются клонированные триггеры логирования)
+-- 2) строки месяца копируются в новую отдельную таблицу и удаляются из DEFAULT,
+--    поэтому перенос не пишет INSERT/DELETE в reservation_logs
+-- 3) новая таблица цепляется партицией месяца, DEFAULT цепляется обратно
+-- Если в DEFAULT строк месяца нет, партиция создается как раньше, без отцепления
+
+
+-- changeset admin:008 partitionFromDefault
+CREATE OR REPLACE FUNCTION ensure_monthly_partition(parent TEXT, month_start DATE)
+RETURNS VOID AS $$
+DECLARE
+    from_date    DATE := date_trunc('month', month_start)::date;
+    to_date      DATE := (date_trunc('month', month_start) + INTERVAL '1 month')::date;
+    part_name    TEXT := parent || '_p' || to_char(from_date, 'YYYYMM');
+    default_name TEXT := parent || '_default';
+    key_column   TEXT;
+    column_list  TEXT;
+    has_rows     BOOLEAN := FALSE;
+BEGIN
+    IF to_regclass(part_name) IS NOT NULL THEN
+        RETURN;
+    END IF;
+
+    SELECT a.attname INTO key_column
+    FROM pg_partitioned_table p
+    JOIN pg_attribute a ON a.attrelid = p.partrelid AND a.attnum = p.partattrs[0]
+    WHERE p.partrelid = parent::regclass;
+
+    IF to_regclass(default_name) IS NOT NULL THEN
+        EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I WHERE %I >= %L AND %I < %L)',
+                       default_name, key_column, from_date, key_column, to_date)
+            INTO has_rows;
+    END IF;
+
+    IF NOT has_rows THEN
+        EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                       part_name, parent, from_date, to_date);
+        RETURN;
+    END IF;
+
+    -- generated колонки (time_range) не копируем, они вычисляются при вставке
+    SELECT string_agg(quote_ident(attname), ', ' ORDER BY attnum) INTO column_list
+    FROM pg_attribute
+    WHERE attrelid = parent::regclass AND attnum > 0 AND NOT attisdropped AND attgenerated = '';
+
+    EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', parent, default_name);
+    EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING GENERATED)', part_name, parent);
+    EXECUTE format('INSERT INTO %I (%s) SELECT %s FROM %I WHERE %I >= %L AND %I < %L',
+                   part_name, column_list, column_list, default_name, key_column, from_date, key_column, to_date);
+    EXECUTE format('DELETE FROM %I WHERE %I >= %L AND %I < %L',
+                   default_name, key_column, from_date, key_column, to_date);
+    EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                   parent, part_name, from_date, to_date);
+    EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I DEFAULT', parent, default_name);
+
+    RAISE NOTICE 'Partition % of % created from DEFAULT partition rows', part_name, parent;
+END;
+$$ LANGUAGE plpgsql;
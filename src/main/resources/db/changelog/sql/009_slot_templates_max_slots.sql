@@ -0,0 +1,12 @@
+-- 009_slot_templates_max_slots.sql
+-- Liquibase formatted SQL file
+
+-- Liquibase ChangeSet
+-- Занятость дня хранится битовой маской long, поэтому в сетке не больше 64 слотов.
+-- Шаблон с большим количеством слотов раньше сохранялся, а падал только при чтении сетки
+
+
+-- changeset admin:009 slotTemplatesMaxSlots
+ALTER TABLE slot_templates
+    ADD CONSTRAINT slot_templates_valid_slots_per_day
+    CHECK (FLOOR(EXTRACT(EPOCH FROM (close_time - open_time)) / 60 / slot_minutes) BETWEEN 1 AND 64);
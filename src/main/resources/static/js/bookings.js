@@ -1,6 +1,9 @@
 let selectedMachineId = null;
 let pollingInterval = 150; // Интервал в миллисекундах
 let maxAttempts = 5; // Максимальное количество попыток
+// Ключи идемпотентности для бронирований, которые еще в процессе: повторный клик по тому же слоту
+// получит ту же операцию, а не создаст дубль
+const pendingBookingKeys = {};
 
 document.addEventListener('DOMContentLoaded', () => {
     loadMachines().then(() => console.log("machines loaded"));
@@ -195,11 +198,15 @@ async function handleBooking(event) {
         endTime: endTime
     };
 
+    const slotKey = `${machineId}:${resDate}:${startTime}:${endTime}`;
+    pendingBookingKeys[slotKey] = pendingBookingKeys[slotKey] || crypto.randomUUID();
+
     try {
         const response = await fetch('/api/reservations/book', {
             method: 'POST',
             headers: {
                 'Content-Type': 'application/json',
+                'Idempotency-Key': pendingBookingKeys[slotKey],
             },
             credentials: 'include',
             body: JSON.stringify(reservationRequest),
@@ -211,11 +218,13 @@ async function handleBooking(event) {
             showSuccessMessage('Бронирование инициировано. Ожидайте обновления статуса.');
 
             // Начинаем поллинг статуса
-            pollReservationStatus(reservationId, statusUrl);
+            pollReservationStatus(reservationId, statusUrl, slotKey);
         } else if (response.status === 400) {
+            delete pendingBookingKeys[slotKey];
             alert('Выбрана невалидная дата, в прошлое нельзя бронироваться')
         }
         else {
+            delete pendingBookingKeys[slotKey];
             const errorData = await response.json();
             alert(`Ошибка при бронировании: ${errorData.message || 'Неизвестная ошибка.'}`);
         }
@@ -241,8 +250,9 @@ function extractReservationIdFromUrl(statusUrl) {
  * Функция для поллинга статуса бронирования с использованием SweetAlert2
  * @param {string} reservationId - ID бронирования
  * @param {string} statusUrl - URL для проверки статуса
+ * @param {string} slotKey - ключ слота, ключ идемпотентности которого освобождается по завершении
  */
-function pollReservationStatus(reservationId, statusUrl) {
+function pollReservationStatus(reservationId, statusUrl, slotKey) {
 
     let attempts = 0;
 
@@ -273,6 +283,7 @@ function pollReservationStatus(reservationId, statusUrl) {
                         showConfirmButton: false
                     });
                     clearInterval(intervalId);
+                    delete pendingBookingKeys[slotKey];
                     await loadMachineTimeSlots(); // Обновление списка слотов после успешного бронирования
                 } else if (statusText.startsWith('Operation failed')) {
                     console.log({
@@ -284,6 +295,7 @@ function pollReservationStatus(reservationId, statusUrl) {
                     });
                     alert(`Бронирование не удалось: ${statusText}`)
                     clearInterval(intervalId);
+                    delete pendingBookingKeys[slotKey];
                 } else {
                     console.log(`Текущее состояние бронирования (${reservationId}): ${statusText}`);
                 }
@@ -0,0 +1,101 @@
+package com.mai.db_cw;
+
+import com.mai.db_cw.config.infrastructure.versioning.ResourceVersions;
+import com.mai.db_cw.dormitory.DormitoryRepository;
+import com.mai.db_cw.machine_time_slots.MachineSlotService;
+import com.mai.db_cw.machine_time_slots.MachineSlotViewRepository;
+import com.mai.db_cw.machine_time_slots.MachineSlotViewRepository.MachineSlotRow;
+import com.mai.db_cw.machine_time_slots.MachineSlotsReadModel;
+import com.mai.db_cw.machine_time_slots.SlotAvailabilityCache;
+import com.mai.db_cw.machine_time_slots.SlotGridRegistry;
+import com.mai.db_cw.machine_time_slots.SlotTemplateRepository;
+import com.mai.db_cw.machine_time_slots.dto.MachineTimeSlotResponse;
+import com.mai.db_cw.machines.MachineService;
+import com.mai.db_cw.reservation.SlotHoldService;
+import com.mai.db_cw.reservation.dao.ReservationRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Проверяет, что список всех машинок со слотами строится одним SQL запросом
+ * (раньше был запрос слота на каждую строку и запрос общежития на каждую машинку)
+ */
+public class MachineSlotServiceTest {
+
+    private static final int MACHINES = 3;
+    private static final int SLOTS_PER_MACHINE = 5;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate = mock(NamedParameterJdbcTemplate.class);
+    private final DormitoryRepository dormitoryRepository = mock(DormitoryRepository.class);
+    private final MachineService machineService = mock(MachineService.class);
+    private final ReservationRepository reservationRepository = mock(ReservationRepository.class);
+    private final SlotHoldService slotHoldService = mock(SlotHoldService.class);
+    private final SlotGridRegistry slotGridRegistry = new SlotGridRegistry(mock(SlotTemplateRepository.class), Duration.ofMinutes(1));
+
+    private MachineSlotService machineSlotService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        machineSlotService = new MachineSlotService(
+                dormitoryRepository,
+                machineService,
+                slotHoldService,
+                new MachineSlotViewRepository(jdbcTemplate),
+                new MachineSlotsReadModel(Duration.ofMinutes(1)),
+                new SlotAvailabilityCache(reservationRepository, slotGridRegistry, new SimpleMeterRegistry(), 100, Duration.ofMinutes(5)),
+                slotGridRegistry,
+                mock(ResourceVersions.class));
+
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class))).thenReturn(rows());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAllMachinesAreLoadedWithSingleQuery() {
+        MachineTimeSlotResponse response = machineSlotService.getAllMachinesWithTimeSlots();
+
+        Assertions.assertEquals(MACHINES, response.getSlots().size());
+        response.getSlots().forEach(machine ->
+                Assertions.assertEquals(SLOTS_PER_MACHINE, machine.getTimeSlots().size()));
+
+        verify(jdbcTemplate, times(1)).query(anyString(), any(RowMapper.class));
+        verifyNoMoreInteractions(jdbcTemplate);
+        verifyNoInteractions(dormitoryRepository, machineService, reservationRepository);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRepeatedCallIsServedFromReadModel() {
+        machineSlotService.getAllMachinesWithTimeSlots();
+        machineSlotService.getAllMachinesWithTimeSlots();
+
+        verify(jdbcTemplate, times(1)).query(anyString(), any(RowMapper.class));
+    }
+
+    private List<MachineSlotRow> rows() {
+        List<MachineSlotRow> rows = new ArrayList<>();
+        for (int machine = 0; machine < MACHINES; machine++) {
+            UUID machineId = UUID.randomUUID();
+            for (int slot = 0; slot < SLOTS_PER_MACHINE; slot++) {
+                rows.add(new MachineSlotRow(machineId, "machine-" + machine, "Морг", "Улица Академика Павлова, д. 15",
+                        UUID.randomUUID(), slot + 1, LocalTime.of(8 + slot, 0), LocalTime.of(9 + slot, 0), true));
+            }
+        }
+        return rows;
+    }
+}
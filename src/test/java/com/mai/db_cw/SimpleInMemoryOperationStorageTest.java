@@ -0,0 +1,73 @@
+package com.mai.db_cw;
+
+import com.mai.db_cw.config.infrastructure.operation_storage.OperationStatus;
+import com.mai.db_cw.config.infrastructure.operation_storage.SimpleInMemoryOperationStorage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Проверяет, что in-memory хранилище операций ограничено по времени жизни и по размеру
+ * и не возвращает завершенные операции в ACCEPTED
+ */
+public class SimpleInMemoryOperationStorageTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void testFinishedOperationExpires() {
+        SimpleInMemoryOperationStorage storage = new SimpleInMemoryOperationStorage(
+                meterRegistry, Duration.ofHours(1), Duration.ZERO, 100);
+
+        UUID finished = storage.addOperationReturningUUID();
+        storage.successfully(finished);
+        Assertions.assertEquals(OperationStatus.UNDEFINED, storage.getOperationStatus(finished));
+
+        // истекшая операция вычищается при записи, а не обходом всего хранилища
+        UUID accepted = storage.addOperationReturningUUID();
+        Assertions.assertEquals(OperationStatus.ACCEPTED, storage.getOperationStatus(accepted));
+        Assertions.assertEquals(1, storage.size());
+        Assertions.assertEquals(1.0, evictions("expired"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> storage.successfully(finished));
+    }
+
+    @Test
+    public void testOldestOperationsAreEvictedOverMaxSize() {
+        SimpleInMemoryOperationStorage storage = new SimpleInMemoryOperationStorage(
+                meterRegistry, Duration.ofHours(1), Duration.ofHours(1), 3);
+
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(storage.addOperationReturningUUID());
+        }
+
+        Assertions.assertEquals(3, storage.size());
+        Assertions.assertEquals(2.0, evictions("size"));
+        Assertions.assertFalse(storage.containsOperation(ids.get(0)));
+        Assertions.assertFalse(storage.containsOperation(ids.get(1)));
+        ids.subList(2, 5).forEach(id ->
+                Assertions.assertEquals(OperationStatus.ACCEPTED, storage.getOperationStatus(id)));
+        Assertions.assertEquals(3.0, meterRegistry.get("operations.storage.size").gauge().value());
+    }
+
+    @Test
+    public void testFinishedOperationIsNotMovedBackToAccepted() {
+        SimpleInMemoryOperationStorage storage = new SimpleInMemoryOperationStorage(
+                meterRegistry, Duration.ofHours(1), Duration.ofHours(1), 100);
+
+        UUID operationId = storage.addOperationReturningUUID();
+        storage.successfully(operationId);
+        storage.updateOperationStatus(operationId, OperationStatus.ACCEPTED);
+
+        Assertions.assertEquals(OperationStatus.FINISHED_SUCCESSFULLY, storage.getOperationStatus(operationId));
+    }
+
+    private double evictions(String reason) {
+        return meterRegistry.get("operations.storage.evictions").tag("reason", reason).counter().count();
+    }
+}
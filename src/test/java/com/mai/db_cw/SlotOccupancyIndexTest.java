@@ -0,0 +1,118 @@
+package com.mai.db_cw;
+
+import com.mai.db_cw.machine_time_slots.SlotGridRegistry;
+import com.mai.db_cw.machine_time_slots.SlotOccupancyIndex;
+import com.mai.db_cw.machine_time_slots.SlotTemplateRepository;
+import com.mai.db_cw.reservation.Reservation;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.Mockito.mock;
+
+public class SlotOccupancyIndexTest {
+
+    private final UUID machineId = UUID.randomUUID();
+    private final LocalDate today = LocalDate.now();
+
+    private SlotOccupancyIndex index;
+
+    @BeforeEach
+    public void setUp() {
+        index = new SlotOccupancyIndex(new SlotGridRegistry(mock(SlotTemplateRepository.class), Duration.ofMinutes(1)));
+        index.load(today, List.of(reservation(today, LocalTime.of(10, 0), LocalTime.of(11, 0))));
+    }
+
+    @Test
+    public void testOccupiedSlotIsNotFree() {
+        Assertions.assertFalse(index.isFree(machineId, today, LocalTime.of(10, 0), LocalTime.of(11, 0)));
+        Assertions.assertFalse(index.isFree(machineId, today, LocalTime.of(9, 0), LocalTime.of(12, 0)));
+        Assertions.assertTrue(index.isFree(machineId, today, LocalTime.of(11, 0), LocalTime.of(12, 0)));
+        Assertions.assertTrue(index.isFree(UUID.randomUUID(), today, LocalTime.of(10, 0), LocalTime.of(11, 0)));
+    }
+
+    @Test
+    public void testUnalignedRequestIsNotAnsweredByIndex() {
+        Assertions.assertTrue(index.canAnswer(machineId, today, LocalTime.of(10, 0), LocalTime.of(12, 0)));
+        Assertions.assertFalse(index.canAnswer(machineId, today, LocalTime.of(10, 30), LocalTime.of(11, 0)));
+        Assertions.assertFalse(index.canAnswer(machineId, today.minusDays(1), LocalTime.of(10, 0), LocalTime.of(11, 0)));
+    }
+
+    @Test
+    public void testReplaceDayReleasesDeletedSlot() {
+        index.occupy(machineId, today, LocalTime.of(12, 0), LocalTime.of(13, 0));
+        index.replaceDay(machineId, today, List.of(reservation(today, LocalTime.of(12, 0), LocalTime.of(13, 0))));
+
+        Assertions.assertTrue(index.isFree(machineId, today, LocalTime.of(10, 0), LocalTime.of(11, 0)));
+        Assertions.assertFalse(index.isFree(machineId, today, LocalTime.of(12, 0), LocalTime.of(13, 0)));
+    }
+
+    @Test
+    public void testReleaseKeepsOtherPendingReservations() {
+        // 12-13 принята, но еще не записана; 13-15 не записалась
+        Reservation pending = reservation(today, LocalTime.of(12, 0), LocalTime.of(13, 0));
+        index.occupy(machineId, today, LocalTime.of(12, 0), LocalTime.of(13, 0));
+        index.occupy(machineId, today, LocalTime.of(13, 0), LocalTime.of(15, 0));
+
+        index.release(machineId, today, LocalTime.of(13, 0), LocalTime.of(15, 0), List.of(pending));
+
+        Assertions.assertTrue(index.isFree(machineId, today, LocalTime.of(13, 0), LocalTime.of(15, 0)));
+        Assertions.assertFalse(index.isFree(machineId, today, LocalTime.of(12, 0), LocalTime.of(13, 0)));
+        Assertions.assertFalse(index.isFree(machineId, today, LocalTime.of(10, 0), LocalTime.of(11, 0)));
+    }
+
+    @Test
+    public void testDeleteKeepsPendingReservationOfSameDay() {
+        // 14-15 принята полосой, но еще не записана; удаляется записанная 10-11
+        Reservation pending = reservation(today, LocalTime.of(14, 0), LocalTime.of(15, 0));
+        index.occupy(machineId, today, LocalTime.of(14, 0), LocalTime.of(15, 0));
+
+        index.release(machineId, today, LocalTime.of(10, 0), LocalTime.of(11, 0), List.of(pending));
+
+        Assertions.assertTrue(index.isFree(machineId, today, LocalTime.of(10, 0), LocalTime.of(11, 0)));
+        Assertions.assertFalse(index.isFree(machineId, today, LocalTime.of(14, 0), LocalTime.of(15, 0)));
+    }
+
+    @Test
+    public void testReplacePeriodAppliesChangesOfOtherNodes() {
+        // в БД 10-11 удалили, а на завтра 12-13 добавили на другом узле
+        LocalDate tomorrow = today.plusDays(1);
+        index.replacePeriod(today, tomorrow, List.of(reservation(tomorrow, LocalTime.of(12, 0), LocalTime.of(13, 0))));
+
+        Assertions.assertTrue(index.isFree(machineId, today, LocalTime.of(10, 0), LocalTime.of(11, 0)));
+        Assertions.assertFalse(index.isFree(machineId, tomorrow, LocalTime.of(12, 0), LocalTime.of(13, 0)));
+    }
+
+    @Test
+    public void testFindFirstFreeSkipsBusyDays() {
+        // сегодня занят слот 10-11, завтра занят весь день кроме 16-17
+        LocalDate tomorrow = today.plusDays(1);
+        index.occupy(machineId, tomorrow, LocalTime.of(8, 0), LocalTime.of(16, 0));
+
+        var window = index.findFirstFree(machineId, today, 2, 2, today.plusDays(5)).orElseThrow();
+        Assertions.assertEquals(today, window.date());
+        Assertions.assertEquals(3, window.firstSlot());
+
+        window = index.findFirstFree(machineId, tomorrow, 0, 2, today.plusDays(5)).orElseThrow();
+        Assertions.assertEquals(today.plusDays(2), window.date());
+        Assertions.assertEquals(0, window.firstSlot());
+
+        Assertions.assertTrue(index.findFirstFree(machineId, tomorrow, 0, 2, tomorrow).isEmpty());
+    }
+
+    private Reservation reservation(LocalDate date, LocalTime start, LocalTime end) {
+        return Reservation.builder()
+                .id(UUID.randomUUID())
+                .machineId(machineId)
+                .resDate(date)
+                .startTime(start)
+                .endTime(end)
+                .build();
+    }
+}